@@ -1,16 +1,24 @@
 package com.mkurt.api.composite;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
+// Fields that are not selected by a read, e.g. weight for fields=name, are null and left out of the JSON
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ProductAggregate {
 
     private final int productId;
     private final String name;
-    private final int weight;
+    private final Integer weight;
     private final List<RecommendationSummary> recommendations;
     private final List<ReviewSummary> reviews;
     private final ServiceAddresses serviceAddresses;
 
+    // Set when the product info comes from the fallback cache, i.e. it might be outdated
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private final boolean stale;
+
     public ProductAggregate() {
         productId = 0;
         name = null;
@@ -18,22 +26,36 @@ public class ProductAggregate {
         recommendations = null;
         reviews = null;
         serviceAddresses = null;
+        stale = false;
     }
 
     public ProductAggregate(
             int productId,
             String name,
-            int weight,
+            Integer weight,
             List<RecommendationSummary> recommendations,
             List<ReviewSummary> reviews,
             ServiceAddresses serviceAddresses) {
 
+        this(productId, name, weight, recommendations, reviews, serviceAddresses, false);
+    }
+
+    public ProductAggregate(
+            int productId,
+            String name,
+            Integer weight,
+            List<RecommendationSummary> recommendations,
+            List<ReviewSummary> reviews,
+            ServiceAddresses serviceAddresses,
+            boolean stale) {
+
         this.productId = productId;
         this.name = name;
         this.weight = weight;
         this.recommendations = recommendations;
         this.reviews = reviews;
         this.serviceAddresses = serviceAddresses;
+        this.stale = stale;
     }
 
     public int getProductId() {
@@ -44,7 +66,7 @@ public class ProductAggregate {
         return name;
     }
 
-    public int getWeight() {
+    public Integer getWeight() {
         return weight;
     }
 
@@ -59,4 +81,8 @@ public class ProductAggregate {
     public ServiceAddresses getServiceAddresses() {
         return serviceAddresses;
     }
+
+    public boolean isStale() {
+        return stale;
+    }
 }
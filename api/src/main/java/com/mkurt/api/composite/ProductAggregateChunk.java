@@ -0,0 +1,78 @@
+package com.mkurt.api.composite;
+
+/**
+ * One part of a product aggregate, as emitted by the streaming variant of the composite read.
+ * Depending on the type, only the product info, the recommendation or the review is set.
+ */
+public class ProductAggregateChunk {
+
+    public enum Type {
+        PRODUCT,
+        RECOMMENDATION,
+        REVIEW
+    }
+
+    private final Type type;
+    private final int productId;
+    private final String name;
+    private final int weight;
+    private final RecommendationSummary recommendation;
+    private final ReviewSummary review;
+    private final String serviceAddress;
+
+    public ProductAggregateChunk() {
+        type = null;
+        productId = 0;
+        name = null;
+        weight = 0;
+        recommendation = null;
+        review = null;
+        serviceAddress = null;
+    }
+
+    public ProductAggregateChunk(
+            Type type,
+            int productId,
+            String name,
+            int weight,
+            RecommendationSummary recommendation,
+            ReviewSummary review,
+            String serviceAddress) {
+
+        this.type = type;
+        this.productId = productId;
+        this.name = name;
+        this.weight = weight;
+        this.recommendation = recommendation;
+        this.review = review;
+        this.serviceAddress = serviceAddress;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public RecommendationSummary getRecommendation() {
+        return recommendation;
+    }
+
+    public ReviewSummary getReview() {
+        return review;
+    }
+
+    public String getServiceAddress() {
+        return serviceAddress;
+    }
+}
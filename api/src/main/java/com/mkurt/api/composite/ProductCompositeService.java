@@ -2,23 +2,77 @@ package com.mkurt.api.composite;
 
 
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 
 public interface ProductCompositeService {
 
 
+    /**
+     * A retried call with the same Idempotency-Key header as an earlier successful call does not publish the
+     * events again, it gets the outcome of the earlier call. A call that reuses the key with another body fails
+     * with 422. The keys are remembered per instance, a retry must reach the same instance to be recognized.
+     */
     @PostMapping(value    = "/product-composite", consumes = "application/json")
-    Mono<Void> createCompositeProduct(@RequestBody ProductAggregate body);
+    Mono<Void> createCompositeProduct(@RequestBody ProductAggregate body,
+                                      @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey);
+
 
+    /**
+     * Imports product aggregates from a stream with one JSON document per line. The lines are processed as they
+     * arrive and one result per line is streamed back, a line that can not be imported is rejected with a reason
+     * without affecting the other lines. Blank lines are skipped.
+     */
+    @PostMapping(value = "/product-composite/import", consumes = "application/x-ndjson", produces = "application/x-ndjson")
+    Flux<ProductImportResult> importCompositeProducts(@RequestBody Flux<String> lines);
 
+
+    /**
+     * fields=name,weight,reviews.author,... returns only the selected fields, the productId is always returned. A
+     * top level field selects all of its sub-fields, e.g. reviews. Recommendations and reviews that are not selected
+     * are not read at all, the others are read with only the selected fields.
+     */
     @GetMapping(value = "/product-composite/{productId}", produces = "application/json")
     Mono<ProductAggregate> getCompositeProduct(@PathVariable int productId,
                                                @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
-                                               @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent);
+                                               @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent,
+                                               @RequestParam(value = "fields", required = false) List<String> fields);
+
 
+    /**
+     * Streams the aggregate of a product in parts: first the product info, then the recommendations and reviews
+     * in the order they arrive from the core services.
+     */
+    @GetMapping(value = "/product-composite/{productId}/stream", produces = {"text/event-stream", "application/x-ndjson"})
+    Flux<ProductAggregateChunk> streamCompositeProduct(@PathVariable int productId);
 
+    /**
+     * Returns the aggregates of the given products as a stream, products that are not found are left out.
+     * With ordered=true the aggregates are returned in the order of the ids, otherwise as soon as each is complete.
+     */
+    @GetMapping(value = "/product-composite", produces = {"application/json", "application/x-ndjson"})
+    Flux<ProductAggregate> getCompositeProducts(@RequestParam(value = "ids") List<Integer> productIds,
+                                                @RequestParam(value = "ordered", required = false, defaultValue = "true") boolean ordered);
+
+
+    /**
+     * Takes an Idempotency-Key header the same way as createCompositeProduct.
+     */
     @DeleteMapping(value = "/product-composite/{productId}")
-    Mono<Void> deleteCompositeProduct(@PathVariable int productId);
+    Mono<Void> deleteCompositeProduct(@PathVariable int productId,
+                                      @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey);
+
+
+    /**
+     * Deletes the aggregates of either the given products, ids=1,2,3, or all products in a range, fromId=1&toId=100
+     * with both bounds included. One delete event per core service is published, whatever the number of products.
+     */
+    @DeleteMapping(value = "/product-composite")
+    Mono<Void> deleteCompositeProducts(@RequestParam(value = "ids", required = false) List<Integer> productIds,
+                                       @RequestParam(value = "fromId", required = false) Integer fromProductId,
+                                       @RequestParam(value = "toId", required = false) Integer toProductId);
 }
 
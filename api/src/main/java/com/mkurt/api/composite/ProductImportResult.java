@@ -0,0 +1,56 @@
+package com.mkurt.api.composite;
+
+/**
+ * The outcome of one line of a bulk import, streamed back in the order of the lines.
+ * The productId is not set when the line could not be parsed.
+ */
+public class ProductImportResult {
+
+    public enum Status {
+        ACCEPTED,
+        REJECTED
+    }
+
+    private final long line;
+    private final Integer productId;
+    private final Status status;
+    private final String reason;
+
+    public ProductImportResult() {
+        line = 0;
+        productId = null;
+        status = null;
+        reason = null;
+    }
+
+    public ProductImportResult(long line, Integer productId, Status status, String reason) {
+        this.line = line;
+        this.productId = productId;
+        this.status = status;
+        this.reason = reason;
+    }
+
+    public static ProductImportResult accepted(long line, int productId) {
+        return new ProductImportResult(line, productId, Status.ACCEPTED, null);
+    }
+
+    public static ProductImportResult rejected(long line, Integer productId, String reason) {
+        return new ProductImportResult(line, productId, Status.REJECTED, reason);
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
@@ -1,10 +1,13 @@
 package com.mkurt.api.composite;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class RecommendationSummary {
 
-    private final int recommendationId;
+    private final Integer recommendationId;
     private final String author;
-    private final int rate;
+    private final Integer rate;
     private final String content;
 
     public RecommendationSummary() {
@@ -14,14 +17,14 @@ public class RecommendationSummary {
         this.content = null;
     }
 
-    public RecommendationSummary(int recommendationId, String author, int rate, String content) {
+    public RecommendationSummary(Integer recommendationId, String author, Integer rate, String content) {
         this.recommendationId = recommendationId;
         this.author = author;
         this.rate = rate;
         this.content = content;
     }
 
-    public int getRecommendationId() {
+    public Integer getRecommendationId() {
         return recommendationId;
     }
 
@@ -29,7 +32,7 @@ public class RecommendationSummary {
         return author;
     }
 
-    public int getRate() {
+    public Integer getRate() {
         return rate;
     }
 
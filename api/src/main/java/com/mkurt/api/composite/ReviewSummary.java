@@ -1,8 +1,11 @@
 package com.mkurt.api.composite;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ReviewSummary {
 
-    private final int reviewId;
+    private final Integer reviewId;
     private final String author;
     private final String subject;
     private final String content;
@@ -14,14 +17,14 @@ public class ReviewSummary {
         this.content = null;
     }
 
-    public ReviewSummary(int reviewId, String author, String subject, String content) {
+    public ReviewSummary(Integer reviewId, String author, String subject, String content) {
         this.reviewId = reviewId;
         this.author = author;
         this.subject = subject;
         this.content = content;
     }
 
-    public int getReviewId() {
+    public Integer getReviewId() {
         return reviewId;
     }
 
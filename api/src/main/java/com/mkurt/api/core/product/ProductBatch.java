@@ -0,0 +1,31 @@
+package com.mkurt.api.core.product;
+
+import java.util.List;
+
+/**
+ * The products found by a multi-get, in the order they were asked for. Ids without a product are listed in
+ * missingProductIds instead of failing the whole request.
+ */
+public class ProductBatch {
+
+    private final List<Product> products;
+    private final List<Integer> missingProductIds;
+
+    public ProductBatch() {
+        products = null;
+        missingProductIds = null;
+    }
+
+    public ProductBatch(List<Product> products, List<Integer> missingProductIds) {
+        this.products = products;
+        this.missingProductIds = missingProductIds;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public List<Integer> getMissingProductIds() {
+        return missingProductIds;
+    }
+}
@@ -3,6 +3,8 @@ package com.mkurt.api.core.product;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface ProductService {
 
 
@@ -11,9 +13,28 @@ public interface ProductService {
                              @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
                              @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent);
 
+    /**
+     * Gets all the given products with one query, missing products are reported in the response instead of as errors.
+     */
+    @GetMapping(value = "/product", produces = "application/json")
+    Mono<ProductBatch> getProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
     @PostMapping(value = "/product", consumes = "application/json", produces = "application/json")
     Mono<Product> createProduct(@RequestBody Product body);
 
     @DeleteMapping(value = "/product/{productId}")
     Mono<Void> deleteProduct(@PathVariable int productId);
+
+    /**
+     * Deletes all the given products in one write.
+     */
+    @DeleteMapping(value = "/product/batch")
+    Mono<Void> deleteProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
+    /**
+     * Deletes all products from fromProductId to toProductId, both included, in one write.
+     */
+    @DeleteMapping(value = "/product/range")
+    Mono<Void> deleteProductRange(@RequestParam(value = "fromProductId") int fromProductId,
+                                  @RequestParam(value = "toProductId") int toProductId);
 }
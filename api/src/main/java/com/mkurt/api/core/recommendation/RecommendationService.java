@@ -12,9 +12,44 @@ public interface RecommendationService {
     @GetMapping(value = "/recommendation", produces = "application/json")
     Flux<Recommendation> getRecommendations(@RequestParam(value = "productId", required = true) int productId);
 
+    /**
+     * Same as getRecommendations(), but reads only the given fields, e.g. fields=author,rate, from the database.
+     * The productId is always returned, the fields that are not read are null or 0.
+     */
+    @GetMapping(value = "/recommendation", params = {"productId", "fields"}, produces = "application/json")
+    Flux<Recommendation> getRecommendations(@RequestParam(value = "productId") int productId,
+                                            @RequestParam(value = "fields") List<String> fields);
+
+    /**
+     * Gets the recommendations of all the given products with one query. The recommendations are sorted by productId
+     * and recommendationId, i.e. the recommendations of a product are next to each other, and are streamed as they
+     * are read, e.g. as NDJSON.
+     */
+    @GetMapping(value = "/recommendation", params = "productIds", produces = {"application/json", "application/x-ndjson"})
+    Flux<Recommendation> getRecommendationsForProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
     @PostMapping(value    = "/recommendation", consumes = "application/json", produces = "application/json")
     Mono<Recommendation> createRecommendation(@RequestBody Recommendation body);
 
+    /**
+     * Creates a number of recommendations in one write, e.g. all recommendations of a new product.
+     */
+    @PostMapping(value    = "/recommendation/batch", consumes = "application/json", produces = "application/json")
+    Flux<Recommendation> createRecommendations(@RequestBody List<Recommendation> body);
+
     @DeleteMapping(value = "/recommendation")
     Mono<Void> deleteRecommendations(@RequestParam(value = "productId", required = true)  int productId);
+
+    /**
+     * Deletes the recommendations of all the given products in one write.
+     */
+    @DeleteMapping(value = "/recommendation/batch")
+    Mono<Void> deleteRecommendationsForProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
+    /**
+     * Deletes the recommendations of all products from fromProductId to toProductId, both included, in one write.
+     */
+    @DeleteMapping(value = "/recommendation/range")
+    Mono<Void> deleteRecommendationsForProductRange(@RequestParam(value = "fromProductId") int fromProductId,
+                                   @RequestParam(value = "toProductId") int toProductId);
 }
@@ -12,9 +12,43 @@ public interface ReviewService {
     @GetMapping(value = "/review", produces = "application/json")
     Flux<Review> getReviews(@RequestParam(value = "productId", required = true) int productId);
 
+    /**
+     * Same as getReviews(), but reads only the given fields, e.g. fields=reviewId,author, from the database.
+     * The productId is always returned, the fields that are not read are null or 0.
+     */
+    @GetMapping(value = "/review", params = {"productId", "fields"}, produces = "application/json")
+    Flux<Review> getReviews(@RequestParam(value = "productId") int productId,
+                            @RequestParam(value = "fields") List<String> fields);
+
+    /**
+     * Gets the reviews of all the given products with one query. The reviews are sorted by productId and reviewId,
+     * i.e. the reviews of a product are next to each other, and are streamed as they are read, e.g. as NDJSON.
+     */
+    @GetMapping(value = "/review", params = "productIds", produces = {"application/json", "application/x-ndjson"})
+    Flux<Review> getReviewsForProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
     @PostMapping(value    = "/review", consumes = "application/json", produces = "application/json")
     Mono<Review> createReview(@RequestBody Review request);
 
+    /**
+     * Creates a number of reviews in one write, e.g. all reviews of a new product.
+     */
+    @PostMapping(value    = "/review/batch", consumes = "application/json", produces = "application/json")
+    Flux<Review> createReviews(@RequestBody List<Review> body);
+
     @DeleteMapping(value = "/review")
     Mono<Void> deleteReviews(@RequestParam(value = "productId", required = true)  int productId);
+
+    /**
+     * Deletes the reviews of all the given products in one write.
+     */
+    @DeleteMapping(value = "/review/batch")
+    Mono<Void> deleteReviewsForProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
+    /**
+     * Deletes the reviews of all products from fromProductId to toProductId, both included, in one write.
+     */
+    @DeleteMapping(value = "/review/range")
+    Mono<Void> deleteReviewsForProductRange(@RequestParam(value = "fromProductId") int fromProductId,
+                                   @RequestParam(value = "toProductId") int toProductId);
 }
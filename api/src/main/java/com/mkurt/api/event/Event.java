@@ -1,9 +1,12 @@
 package com.mkurt.api.event;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.datatype.jsr310.ser.ZonedDateTimeSerializer;
 
 import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.UUID;
 
 import static java.time.ZonedDateTime.now;
 
@@ -11,28 +14,103 @@ public class Event<K, T> {
 
     public enum Type {
         CREATE,
-        DELETE
+        CREATE_BATCH,
+        DELETE,
+        DELETE_LIST,
+        DELETE_RANGE
     }
 
+    // Unique per event, a message that is redelivered keeps the id of its event
+    private final String eventId;
+
     private final Type eventType;
     private final K key;
     private final T data;
+
+    // The entities of a CREATE_BATCH event, all of them belong to the key, or to the keys if listed
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final List<T> items;
+
+    // The keys of a DELETE_LIST event, the first and last key of a DELETE_RANGE event, or the keys of the entities
+    // of a CREATE_BATCH event for more than one key
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final List<K> keys;
+
     private final ZonedDateTime eventCreatedAt;
 
     public Event() {
+        this.eventId = null;
         this.eventType = null;
         this.key = null;
         this.data = null;
+        this.items = null;
+        this.keys = null;
         this.eventCreatedAt = null;
     }
 
     public Event(Type eventType, K key, T data) {
+        this(eventType, key, data, null, null);
+    }
+
+    private Event(Type eventType, K key, T data, List<T> items, List<K> keys) {
+        this.eventId = UUID.randomUUID().toString();
         this.eventType = eventType;
         this.key = key;
         this.data = data;
+        this.items = items;
+        this.keys = keys;
         this.eventCreatedAt = now();
     }
 
+    /**
+     * Creates one event for a number of entities that belong to the same key, applied by the consumer in one write.
+     */
+    public static <K, T> Event<K, T> createBatch(K key, List<T> items) {
+        return new Event<>(Type.CREATE_BATCH, key, null, items, null);
+    }
+
+    /**
+     * Creates one event for a number of entities that belong to a number of keys, applied by the consumer in one
+     * write. The keys are listed in the event, i.e. a consumer that keeps the order of the events per key handles it
+     * like a DELETE_LIST event. The first key is used as the key of the event, the publisher must only put keys in
+     * one event that go to the same partition.
+     */
+    public static <K, T> Event<K, T> createBatchForKeys(List<K> keys, List<T> items) {
+        return new Event<>(Type.CREATE_BATCH, keys.get(0), null, items, keys);
+    }
+
+    /**
+     * Creates one event that deletes the entities of all the keys, applied by the consumer in one write.
+     * The first key is used as the key of the event, i.e. it goes to the partition of that key. The publisher must
+     * only put keys in one event that go to the same partition, otherwise the delete of a key is not ordered with
+     * the other events of the key.
+     */
+    public static <K, T> Event<K, T> deleteList(List<K> keys) {
+        return new Event<>(Type.DELETE_LIST, keys.get(0), null, null, keys);
+    }
+
+    /**
+     * Creates one event that deletes the entities of all keys from fromKey to toKey, both included, applied by
+     * the consumer in one write. fromKey is used as the key of the event, i.e. it only goes to the partition of
+     * fromKey. On a partitioned topic the publisher must send a copy per partition, see the method below.
+     */
+    public static <K, T> Event<K, T> deleteRange(K fromKey, K toKey) {
+        return deleteRange(fromKey, fromKey, toKey);
+    }
+
+    /**
+     * Same as above but the event has the given key, which only selects the partition the event goes to. A range
+     * delete is broadcast to a partitioned topic as one such event per partition, keyed by a key of the range in
+     * that partition, so that it is ordered with the other events of every key in the range.
+     */
+    public static <K, T> Event<K, T> deleteRange(K key, K fromKey, K toKey) {
+        return new Event<>(Type.DELETE_RANGE, key, null, null, List.of(fromKey, toKey));
+    }
+
+    public String getEventId() {
+        return eventId;
+    }
+
     public Type getEventType() {
         return eventType;
     }
@@ -45,6 +123,14 @@ public class Event<K, T> {
         return data;
     }
 
+    public List<T> getItems() {
+        return items;
+    }
+
+    public List<K> getKeys() {
+        return keys;
+    }
+
     @JsonSerialize(using = ZonedDateTimeSerializer.class)
     public ZonedDateTime getEventCreatedAt() {
         return eventCreatedAt;
@@ -0,0 +1,20 @@
+package com.mkurt.api.exception;
+
+public class EventPublishingException extends RuntimeException {
+
+    public EventPublishingException() {
+    }
+
+    public EventPublishingException(String message) {
+        super(message);
+    }
+
+    public EventPublishingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public EventPublishingException(Throwable cause) {
+        super(cause);
+    }
+}
+
@@ -0,0 +1,91 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.mkurt.api.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mkurt.api.event.Event.Type.DELETE;
+import static com.mkurt.api.event.Event.Type.DELETE_LIST;
+import static com.mkurt.api.event.Event.Type.DELETE_RANGE;
+
+/**
+ * The composite service listens to the same topics as it publishes to. Each instance uses an anonymous consumer
+ * group, i.e. every instance sees every event and can drop the cached aggregate for the product it concerns.
+ */
+@Configuration
+public class CacheInvalidationConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheInvalidationConfig.class);
+
+    private final ProductAggregateCache aggregateCache;
+    private final ProductFallbackStore fallbackStore;
+
+    @Autowired
+    public CacheInvalidationConfig(ProductAggregateCache aggregateCache, ProductFallbackStore fallbackStore) {
+        this.aggregateCache = aggregateCache;
+        this.fallbackStore = fallbackStore;
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Object>> productCacheInvalidator() {
+        return event -> {
+            invalidate(event);
+
+            // A deleted product must not come back through the circuit breaker fallback
+            if (event.getEventType() == DELETE && event.getKey() != null) {
+                fallbackStore.remove(event.getKey());
+            } else if (event.getEventType() == DELETE_LIST && event.getKeys() != null) {
+                fallbackStore.removeAll(event.getKeys());
+            } else if (event.getEventType() == DELETE_RANGE && event.getKeys() != null) {
+                fallbackStore.removeRange(event.getKeys().get(0), event.getKeys().get(1));
+            }
+        };
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Object>> recommendationCacheInvalidator() {
+        return this::invalidate;
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Object>> reviewCacheInvalidator() {
+        return this::invalidate;
+    }
+
+    private void invalidate(Event<Integer, Object> event) {
+        // A CREATE_BATCH event for more than one product lists them as its keys
+        if (event.getEventType() == DELETE_LIST || event.getEventType() == DELETE_RANGE || event.getKeys() != null) {
+            invalidateMany(event);
+            return;
+        }
+
+        if (event.getKey() == null) {
+            LOG.warn("Ignores a {} event without a key", event.getEventType());
+            return;
+        }
+
+        LOG.debug("Got a {} event for productId: {}, invalidates the cached aggregate", event.getEventType(), event.getKey());
+        aggregateCache.invalidate(event.getKey());
+    }
+
+    private void invalidateMany(Event<Integer, Object> event) {
+        List<Integer> keys = event.getKeys();
+        if (keys == null || keys.isEmpty()) {
+            LOG.warn("Ignores a {} event without keys", event.getEventType());
+            return;
+        }
+
+        LOG.debug("Got a {} event for {} productIds, invalidates the cached aggregates", event.getEventType(), keys.size());
+        if (event.getEventType() == DELETE_RANGE) {
+            aggregateCache.invalidateRange(keys.get(0), keys.get(1));
+        } else {
+            keys.forEach(aggregateCache::invalidate);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.mkurt.api.exception.InvalidInputException;
+import com.mkurt.api.exception.NotFoundException;
+import io.github.resilience4j.reactor.timelimiter.TimeLimiterOperator;
+import io.github.resilience4j.timelimiter.TimeLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Times the calls to the core services, published as the timer "downstream.requests" with a percentile histogram,
+ * e.g. downstream_requests_seconds_bucket in /actuator/prometheus. The tags are:
+ * <ul>
+ *     <li>dependency: product, recommendation or review</li>
+ *     <li>outcome: success, not_found, invalid_input, error, timeout if the attempt ran out of time, or cancelled if it was
+ *     cancelled before it completed, e.g. by the client or as the losing call of a hedge</li>
+ *     <li>attempt: 1 for the first call, 2 and up for retries of the product call and hedged calls to recommendation and review</li>
+ * </ul>
+ * Answers from the product circuit breaker fallback are counted by "downstream.fallbacks", with the outcome fallback,
+ * or circuit_open if the fallback cache could not help either.
+ */
+@Component
+public class DownstreamMetrics {
+
+    public static final String SUCCESS = "success";
+    public static final String NOT_FOUND = "not_found";
+    public static final String INVALID_INPUT = "invalid_input";
+    public static final String TIMEOUT = "timeout";
+    public static final String CANCELLED = "cancelled";
+    public static final String ERROR = "error";
+    public static final String FALLBACK = "fallback";
+    public static final String CIRCUIT_OPEN = "circuit_open";
+
+    private final MeterRegistry meterRegistry;
+
+    // The meters are looked up once per tag combination, not per call
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> fallbacks = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DownstreamMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Times each subscription to the call, i.e. each attempt. The attempts counter is shared by all attempts of one
+     * logical call and counted when an attempt is subscribed to.
+     *
+     * The time limiter, if not null, is applied to each attempt inside the timing, i.e. an attempt that runs out of
+     * time fails with a TimeoutException and is timed with the outcome timeout. A time limiter applied around the
+     * call, e.g. by @TimeLimiter, would cancel the attempt instead, and a cancel can not tell a timeout from a client
+     * that went away.
+     */
+    public <T> Mono<T> timed(String dependency, AtomicInteger attempts, TimeLimiter timeLimiter, Mono<T> call) {
+        return Mono.defer(() -> {
+            int[] attempt = new int[1];
+            long[] start = new long[1];
+            Throwable[] error = new Throwable[1];
+            return (timeLimiter == null ? call : call.transformDeferred(TimeLimiterOperator.of(timeLimiter)))
+                    .doOnSubscribe(subscription -> {
+                        attempt[0] = attempts.incrementAndGet();
+                        start[0] = System.nanoTime();
+                    })
+                    .doOnError(ex -> error[0] = ex)
+                    .doFinally(signal -> record(dependency, attempt[0], outcome(signal, error[0]), start[0]));
+        });
+    }
+
+    public <T> Flux<T> timed(String dependency, AtomicInteger attempts, TimeLimiter timeLimiter, Flux<T> call) {
+        return Flux.defer(() -> {
+            int[] attempt = new int[1];
+            long[] start = new long[1];
+            Throwable[] error = new Throwable[1];
+            return (timeLimiter == null ? call : call.transformDeferred(TimeLimiterOperator.of(timeLimiter)))
+                    .doOnSubscribe(subscription -> {
+                        attempt[0] = attempts.incrementAndGet();
+                        start[0] = System.nanoTime();
+                    })
+                    .doOnError(ex -> error[0] = ex)
+                    .doFinally(signal -> record(dependency, attempt[0], outcome(signal, error[0]), start[0]));
+        });
+    }
+
+    public void recordFallback(String dependency, String outcome) {
+        fallbacks.computeIfAbsent(dependency + ":" + outcome, key -> Counter.builder("downstream.fallbacks")
+                .tag("dependency", dependency)
+                .tag("outcome", outcome)
+                .description("Answers given by a circuit breaker fallback instead of the dependency")
+                .register(meterRegistry))
+                .increment();
+    }
+
+    private void record(String dependency, int attempt, String outcome, long start) {
+        timers.computeIfAbsent(dependency + ":" + outcome + ":" + attempt, key -> Timer.builder("downstream.requests")
+                .tag("dependency", dependency)
+                .tag("outcome", outcome)
+                .tag("attempt", String.valueOf(attempt))
+                .description("Calls from the composite service to the core services")
+                .publishPercentileHistogram()
+                .register(meterRegistry))
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private String outcome(SignalType signal, Throwable error) {
+        switch (signal) {
+            case ON_COMPLETE:
+                return SUCCESS;
+            case CANCEL:
+                return CANCELLED;
+            default:
+                if (error instanceof NotFoundException || error instanceof WebClientResponseException.NotFound) {
+                    return NOT_FOUND;
+                } else if (error instanceof InvalidInputException || error instanceof WebClientResponseException.UnprocessableEntity) {
+                    return INVALID_INPUT;
+                } else if (error instanceof TimeoutException) {
+                    return TIMEOUT;
+                } else {
+                    return ERROR;
+                }
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mkurt.api.event.Event;
+import com.mkurt.api.exception.EventPublishingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A local outbox for the events of the composite service, enabled by app.outbox.enabled. An event is appended to
+ * a memory-mapped segment file and the write is acknowledged right away, a relay thread then publishes the events
+ * in batches through the EventPublisher. The events survive a broker outage and a restart of the service, as long
+ * as the OS has written the pages of the segment file to disk.
+ *
+ * Records are written as: body length (int), CRC32 of the body (int), binding name length (short), binding name,
+ * has key (byte), key (int), event JSON. A body length of 0 marks the end of the records of a segment. When a
+ * segment is full, a new one is started, up to maxSegments, after that appends fail until the relay has caught up.
+ * The events are serialized and appended on a thread of their own, never on the thread of the caller: starting a
+ * segment maps a new file, which must not block an event loop thread.
+ * The relay keeps its position in a checkpoint file and deletes segments once all their events are published. A
+ * record with a wrong CRC is logged and skipped, the records after it are relayed as usual. Events are published at
+ * least once, i.e. an event can be published again if the service stops between publishing a batch and writing the
+ * checkpoint.
+ *
+ * A batch that fails is relayed again after a backoff that doubles per attempt, from retryBackoffMs up to
+ * maxRetryBackoffMs. After maxRelayAttempts failed attempts, the events of the batch are published one by one and
+ * the ones that still fail are appended to the dead-letter file, one line per event: binding name, key and event
+ * JSON separated by tabs. That way one event that can not be published does not hold up the outbox for good.
+ */
+@Component
+public class EventOutbox {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventOutbox.class);
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String DEAD_LETTER_FILE = "dead-letter.log";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int batchSize;
+    private final Duration relayTimeout;
+    private final int maxRelayAttempts;
+    private final long retryBackoffMs;
+    private final long maxRetryBackoffMs;
+    private final ObjectMapper mapper;
+    private final EventPublisher publisher;
+
+    // Guarded by this, shared by the writers and the relay
+    private final NavigableMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private long writeSegment;
+    private int writePosition;
+    private long readSegment;
+    private int readPosition;
+
+    private boolean closed;
+
+    private MappedByteBuffer checkpoint;
+    private Scheduler appender;
+    private ScheduledExecutorService relay;
+
+    // Only used by the relay thread
+    private int failedAttempts;
+    private long retryAtNanos;
+
+    @Autowired
+    public EventOutbox(@Value("${app.outbox.enabled:false}") boolean enabled,
+                       @Value("${app.outbox.directory:outbox}") String directory,
+                       @Value("${app.outbox.segmentSizeMb:16}") int segmentSizeMb,
+                       @Value("${app.outbox.maxSegments:64}") int maxSegments,
+                       @Value("${app.outbox.batchSize:500}") int batchSize,
+                       @Value("${app.outbox.pollIntervalMs:50}") long pollIntervalMs,
+                       @Value("${app.outbox.relayTimeoutMs:30000}") long relayTimeoutMs,
+                       @Value("${app.outbox.maxRelayAttempts:20}") int maxRelayAttempts,
+                       @Value("${app.outbox.retryBackoffMs:1000}") long retryBackoffMs,
+                       @Value("${app.outbox.maxRetryBackoffMs:60000}") long maxRetryBackoffMs,
+                       ObjectMapper mapper,
+                       EventPublisher publisher) throws IOException {
+
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.maxSegments = maxSegments;
+        this.batchSize = batchSize;
+        this.relayTimeout = Duration.ofMillis(relayTimeoutMs);
+        this.maxRelayAttempts = maxRelayAttempts;
+        this.retryBackoffMs = retryBackoffMs;
+        this.maxRetryBackoffMs = maxRetryBackoffMs;
+        this.mapper = mapper;
+        this.publisher = publisher;
+
+        if (!enabled) {
+            return;
+        }
+
+        LOG.info("Creates an event outbox in {}, segmentSizeMb = {}, maxSegments = {}, batchSize = {}, pollIntervalMs = {}, maxRelayAttempts = {}",
+                this.directory.toAbsolutePath(), segmentSizeMb, maxSegments, batchSize, pollIntervalMs, maxRelayAttempts);
+
+        recover();
+
+        appender = Schedulers.newSingle("outbox-append");
+        relay = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "outbox-relay"));
+        relay.scheduleWithFixedDelay(this::relay, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Completes as soon as the event is written to the outbox.
+     */
+    public Mono<Void> append(String bindingName, Event event) {
+        return Mono.fromRunnable(() -> {
+            byte[] json;
+            try {
+                json = mapper.writeValueAsBytes(event);
+            } catch (JsonProcessingException ex) {
+                throw new EventPublishingException("Failed to serialize a " + event.getEventType() + " event", ex);
+            }
+            append(bindingName, (Integer) event.getKey(), json);
+        })
+                .subscribeOn(appender)
+                .onErrorMap(RejectedExecutionException.class, ex -> new EventPublishingException("The outbox is shut down", ex))
+                .then();
+    }
+
+    /**
+     * Waits for the relay to finish its current batch before the segments are flushed and released, i.e. the relay
+     * never reads a released segment. Appends fail after the shutdown.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (relay == null) {
+            return;
+        }
+
+        relay.shutdown();
+        try {
+            if (!relay.awaitTermination(relayTimeout.toMillis() * 2, TimeUnit.MILLISECONDS)) {
+                LOG.warn("The outbox relay did not stop in time, releases the outbox segments anyway");
+                relay.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            relay.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            closed = true;
+            segments.values().forEach(MappedByteBuffer::force);
+            checkpoint.force();
+            segments.clear();
+        }
+        appender.dispose();
+    }
+
+    private synchronized void append(String bindingName, Integer key, byte[] json) {
+        if (closed) {
+            throw new EventPublishingException("The outbox is shut down");
+        }
+
+        byte[] binding = bindingName.getBytes(UTF_8);
+        int bodyLength = 2 + binding.length + 1 + 4 + json.length;
+        int recordLength = RECORD_HEADER_SIZE + bodyLength;
+
+        // Leave room for the end marker
+        if (recordLength + 4 > segmentSize) {
+            throw new EventPublishingException("An event of " + json.length + " bytes does not fit in an outbox segment");
+        }
+        if (writePosition + recordLength + 4 > segmentSize) {
+            if (segments.size() >= maxSegments) {
+                throw new EventPublishingException("The outbox is full, " + segments.size() + " segments wait to be relayed");
+            }
+            writeSegment++;
+            writePosition = 0;
+            segments.put(writeSegment, mapSegment(writeSegment));
+            LOG.debug("Started outbox segment {}", writeSegment);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.putShort((short) binding.length);
+        body.put(binding);
+        body.put((byte) (key == null ? 0 : 1));
+        body.putInt(key == null ? 0 : key);
+        body.put(json);
+
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+
+        // The length is written last, after the end marker behind the record, so a torn write is never read as a record
+        MappedByteBuffer segment = segments.get(writeSegment);
+        ByteBuffer view = segment.duplicate();
+        view.position(writePosition + RECORD_HEADER_SIZE);
+        view.put(body.array());
+        segment.putInt(writePosition + recordLength, 0);
+        segment.putInt(writePosition + 4, (int) crc.getValue());
+        segment.putInt(writePosition, bodyLength);
+        writePosition += recordLength;
+    }
+
+    private void relay() {
+        if (failedAttempts > 0 && System.nanoTime() - retryAtNanos < 0) {
+            return;
+        }
+
+        try {
+            // Keep going as long as there are full batches waiting
+            while (relayBatch() == batchSize) {
+                LOG.debug("Relayed a full batch of outbox events, continues");
+            }
+        } catch (RuntimeException ex) {
+            failedAttempts++;
+            long backoffMs = Math.min(retryBackoffMs << Math.min(failedAttempts - 1, 20), maxRetryBackoffMs);
+            retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+            LOG.warn("Failed to relay events from the outbox, attempt {} of {}, will retry in {} ms: {}",
+                    failedAttempts, maxRelayAttempts, backoffMs, ex.toString());
+        }
+    }
+
+    private int relayBatch() {
+        List<OutboxRecord> batch = new ArrayList<>();
+        long segment;
+        int position;
+
+        synchronized (this) {
+            segment = readSegment;
+            position = readPosition;
+            while (batch.size() < batchSize) {
+                OutboxRecord record = read(segments.get(segment), position);
+                if (record == null) {
+                    if (segment < writeSegment) {
+                        segment = segments.higherKey(segment);
+                        position = 0;
+                        continue;
+                    }
+                    break;
+                }
+                if (!record.isCorrupt()) {
+                    batch.add(record);
+                }
+                position = record.nextPosition;
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            if (failedAttempts >= maxRelayAttempts) {
+                publishOrDeadLetter(batch);
+            } else {
+                Flux.fromIterable(batch)
+                        .flatMap(record -> publisher.publishSerialized(record.bindingName, record.key, record.json), batch.size())
+                        .then()
+                        .block(relayTimeout);
+            }
+            LOG.debug("Relayed {} events from the outbox", batch.size());
+        }
+
+        failedAttempts = 0;
+        if (segment != readSegment || position != readPosition) {
+            commit(segment, position);
+        }
+        return batch.size();
+    }
+
+    /**
+     * The last attempt for a batch that failed maxRelayAttempts times, each event that fails once more is moved to
+     * the dead-letter file.
+     */
+    private void publishOrDeadLetter(List<OutboxRecord> batch) {
+        LOG.warn("Relays a batch of {} outbox events one by one after {} failed attempts", batch.size(), failedAttempts);
+
+        Flux.fromIterable(batch)
+                .flatMap(record -> publisher.publishSerialized(record.bindingName, record.key, record.json)
+                        .timeout(relayTimeout)
+                        .onErrorResume(error -> Mono.fromRunnable(() -> deadLetter(record, error))), batch.size())
+                .then()
+                .block();
+    }
+
+    private synchronized void deadLetter(OutboxRecord record, Throwable error) {
+        LOG.error("Moves an event for {} with key {} to the outbox dead-letter file: {}", record.bindingName, record.key, error.toString());
+
+        byte[] prefix = (record.bindingName + "\t" + record.key + "\t").getBytes(UTF_8);
+        ByteBuffer line = ByteBuffer.allocate(prefix.length + record.json.length + 1);
+        line.put(prefix);
+        line.put(record.json);
+        line.put((byte) '\n');
+        line.flip();
+        try (FileChannel channel = FileChannel.open(directory.resolve(DEAD_LETTER_FILE), CREATE, WRITE, APPEND)) {
+            channel.write(line);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private synchronized void commit(long segment, int position) {
+        readSegment = segment;
+        readPosition = position;
+        checkpoint.putLong(0, segment);
+        checkpoint.putInt(8, position);
+
+        // Compaction: segments before the read position are fully published
+        while (segments.firstKey() < readSegment) {
+            long drained = segments.pollFirstEntry().getKey();
+            try {
+                Files.deleteIfExists(segmentPath(drained));
+                LOG.debug("Deleted the drained outbox segment {}", drained);
+            } catch (IOException ex) {
+                LOG.warn("Failed to delete the drained outbox segment {}: {}", drained, ex.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the record at the position, or null at the end of the records of the segment.
+     */
+    private OutboxRecord read(MappedByteBuffer segment, int position) {
+        if (position + RECORD_HEADER_SIZE > segmentSize) {
+            return null;
+        }
+
+        int bodyLength = segment.getInt(position);
+        if (bodyLength <= 0 || position + RECORD_HEADER_SIZE + bodyLength > segmentSize) {
+            return null;
+        }
+
+        byte[] body = new byte[bodyLength];
+        ByteBuffer view = segment.duplicate();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.get(body);
+
+        int nextPosition = position + RECORD_HEADER_SIZE + bodyLength;
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != segment.getInt(position + 4)) {
+            LOG.error("Found a corrupt record at position {} in an outbox segment, skips it", position);
+            return OutboxRecord.corrupt(nextPosition);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        byte[] binding = new byte[buffer.getShort()];
+        buffer.get(binding);
+        boolean hasKey = buffer.get() == 1;
+        int key = buffer.getInt();
+        byte[] json = new byte[buffer.remaining()];
+        buffer.get(json);
+
+        return new OutboxRecord(new String(binding, UTF_8), hasKey ? key : null, json, nextPosition);
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+
+        try (FileChannel channel = FileChannel.open(directory.resolve(CHECKPOINT_FILE), CREATE, READ, WRITE)) {
+            checkpoint = channel.map(FileChannel.MapMode.READ_WRITE, 0, 12);
+        }
+        readSegment = checkpoint.getLong(0);
+        readPosition = checkpoint.getInt(8);
+
+        List<Long> existing = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .forEach(existing::add);
+        }
+
+        for (long segment : existing) {
+            if (segment < readSegment) {
+                Files.deleteIfExists(segmentPath(segment));
+            } else {
+                segments.put(segment, mapSegment(segment));
+            }
+        }
+
+        if (segments.isEmpty()) {
+            segments.put(readSegment, mapSegment(readSegment));
+        } else if (segments.firstKey() > readSegment) {
+            readSegment = segments.firstKey();
+            readPosition = 0;
+        }
+
+        // Find the end of the last segment, a torn write after it is cut off by a new end marker
+        writeSegment = segments.lastKey();
+        MappedByteBuffer last = segments.get(writeSegment);
+        int position = writeSegment == readSegment ? readPosition : 0;
+        OutboxRecord record;
+        while ((record = read(last, position)) != null) {
+            position = record.nextPosition;
+        }
+        writePosition = position;
+        last.putInt(writePosition, 0);
+
+        LOG.info("Recovered the event outbox, segments {} to {}, read position {}/{}, write position {}/{}",
+                segments.firstKey(), writeSegment, readSegment, readPosition, writeSegment, writePosition);
+    }
+
+    private MappedByteBuffer mapSegment(long segment) {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), CREATE, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static class OutboxRecord {
+
+        private final String bindingName;
+        private final Integer key;
+        private final byte[] json;
+        private final int nextPosition;
+
+        OutboxRecord(String bindingName, Integer key, byte[] json, int nextPosition) {
+            this.bindingName = bindingName;
+            this.key = key;
+            this.json = json;
+            this.nextPosition = nextPosition;
+        }
+
+        static OutboxRecord corrupt(int nextPosition) {
+            return new OutboxRecord(null, null, null, nextPosition);
+        }
+
+        boolean isCorrupt() {
+            return json == null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.mkurt.productcompositeservice.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.config.BindingServiceProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Tells which partition of a binding the events of a key go to, the same way as the binder does it with the
+ * partitionKey header and its default partition selector, i.e. the hash code of the key modulo the partition count
+ * of the binding. A binding without a partition count has one partition.
+ *
+ * An event for more than one key, e.g. a list delete, is only ordered with the other events of its keys if all of
+ * them go to the same partition. Such events are therefore split by partition before they are published, and a
+ * range delete, whose keys are not listed, is broadcast to the partitions of the range.
+ */
+@Component
+public class EventPartitioner {
+
+    private final BindingServiceProperties bindingProperties;
+
+    @Autowired
+    public EventPartitioner(BindingServiceProperties bindingProperties) {
+        this.bindingProperties = bindingProperties;
+    }
+
+    public int partitionCount(String bindingName) {
+        return Math.max(1, bindingProperties.getProducerProperties(bindingName).getPartitionCount());
+    }
+
+    /**
+     * The items grouped by the partition of their key, in partition order. The items of a partition keep their order.
+     */
+    public <T> List<List<T>> splitByPartition(String bindingName, List<T> items, Function<T, ?> keyOf) {
+        int partitionCount = partitionCount(bindingName);
+        if (partitionCount == 1) {
+            return List.of(items);
+        }
+
+        Map<Integer, List<T>> partitions = new TreeMap<>();
+        for (T item : items) {
+            partitions.computeIfAbsent(partitionOf(keyOf.apply(item), partitionCount), partition -> new ArrayList<>()).add(item);
+        }
+        return new ArrayList<>(partitions.values());
+    }
+
+    /**
+     * One key of the range per partition that has keys in the range, e.g. the keys to broadcast a range delete with.
+     * The hash code of an Integer is its value, so the first partitionCount keys of the range go to different
+     * partitions.
+     */
+    public List<Integer> keysPerPartition(String bindingName, int fromKey, int toKey) {
+        int lastKey = (int) Math.min(toKey, (long) fromKey + partitionCount(bindingName) - 1);
+        List<Integer> keys = new ArrayList<>();
+        for (int key = fromKey; key <= lastKey; key++) {
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    private static int partitionOf(Object key, int partitionCount) {
+        return Math.abs(key.hashCode() % partitionCount);
+    }
+}
@@ -0,0 +1,230 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.mkurt.api.event.Event;
+import com.mkurt.api.exception.EventPublishingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Publishes events without tying up a thread per event. Events are put on a bounded queue that is drained in order,
+ * each event is handed to StreamBridge on a bounded elastic thread, since the send may block, e.g. on a RabbitMQ
+ * channel. At most maxInFlight events can be waiting for a broker confirm, the queue is not drained faster than the
+ * broker confirms. When the queue is full, the Mono returned by publish() waits for a free place in the queue, i.e.
+ * callers are held back by the broker instead of failing. The Mono completes when the broker has confirmed the
+ * event, it fails if the broker nacks the event or the confirm does not arrive in time.
+ *
+ * Confirms are only available for RabbitMQ, where the binder completes the CorrelationData passed in a header once
+ * the broker has acked the message, see useConfirmHeader in the binding config. Without confirms, e.g. for Kafka
+ * where the binder sends asynchronously, the Mono completes once the event is handed over to the binder.
+ */
+@Component
+public class EventPublisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventPublisher.class);
+
+    private final StreamBridge streamBridge;
+    private final boolean confirms;
+    private final Duration confirmTimeout;
+
+    private final int queueSize;
+    private final Sinks.Many<PendingEvent> queue;
+    private final Disposable drain;
+
+    // The events in the queue and the events that wait for a place in it, guarded by queue
+    private int queued;
+    private final Queue<PendingEvent> waiting = new ArrayDeque<>();
+
+    @Autowired
+    public EventPublisher(StreamBridge streamBridge,
+                          @Value("${app.publisher.queueSize:10000}") int queueSize,
+                          @Value("${app.publisher.maxInFlight:256}") int maxInFlight,
+                          @Value("${app.publisher.confirms:false}") boolean confirms,
+                          @Value("${app.publisher.confirmTimeoutMs:5000}") long confirmTimeoutMs) {
+
+        LOG.info("Creates an event publisher with queueSize = {}, maxInFlight = {}, confirms = {}, confirmTimeoutMs = {}",
+                queueSize, maxInFlight, confirms, confirmTimeoutMs);
+
+        this.streamBridge = streamBridge;
+        this.confirms = confirms;
+        this.confirmTimeout = Duration.ofMillis(confirmTimeoutMs);
+        this.queueSize = queueSize;
+        this.queue = Sinks.many().unicast().onBackpressureBuffer(Queues.<PendingEvent>get(queueSize).get());
+        this.drain = queue.asFlux()
+                .doOnNext(pending -> release())
+                .concatMap(pending -> send(pending).subscribeOn(Schedulers.boundedElastic()))
+                .flatMap(this::awaitOutcome, maxInFlight)
+                .subscribe();
+    }
+
+    public Mono<Void> publish(String bindingName, Event event) {
+        return publish(bindingName, event.getKey(), event, event.getEventType() + " event");
+    }
+
+    /**
+     * Publishes an event that already is serialized to JSON, e.g. by the outbox.
+     */
+    public Mono<Void> publishSerialized(String bindingName, Object key, byte[] eventJson) {
+        return publish(bindingName, key, eventJson, "serialized event");
+    }
+
+    private Mono<Void> publish(String bindingName, Object key, Object payload, String description) {
+        return Mono.create(sink -> {
+            PendingEvent pending = new PendingEvent(bindingName, key, payload, description, sink);
+            synchronized (queue) {
+                if (queued < queueSize) {
+                    queued++;
+                    enqueue(pending);
+                } else {
+                    waiting.add(pending);
+                    sink.onCancel(() -> {
+                        synchronized (queue) {
+                            waiting.remove(pending);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // Called with the lock on queue held, i.e. emits are serialized
+    private void enqueue(PendingEvent pending) {
+        Sinks.EmitResult result = queue.tryEmitNext(pending);
+        if (result.isFailure()) {
+            queued--;
+            pending.sink.error(new EventPublishingException("Failed to queue a " + pending.description + " for " + pending.bindingName + ": " + result));
+        }
+    }
+
+    // An event has left the queue, its place goes to the event that has waited the longest, if any
+    private void release() {
+        synchronized (queue) {
+            PendingEvent next = waiting.poll();
+            if (next == null) {
+                queued--;
+            } else {
+                enqueue(next);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<PendingEvent> notQueued;
+        synchronized (queue) {
+            queue.tryEmitComplete();
+            notQueued = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        notQueued.forEach(pending -> pending.sink.error(new EventPublishingException("The event publisher is shut down")));
+        drain.dispose();
+    }
+
+    /**
+     * Hands the event to StreamBridge, in queue order. Emits the confirm to wait for, if any, or nothing if the
+     * outcome already is passed to the caller of publish(). Never fails, a failing event must not stop the queue.
+     */
+    private Mono<PendingConfirm> send(PendingEvent pending) {
+        return Mono.defer(() -> {
+                    LOG.debug("Sending a {} to {}", pending.description, pending.bindingName);
+
+                    MessageBuilder<Object> builder = MessageBuilder.withPayload(pending.payload)
+                            .setHeader("partitionKey", pending.key);
+                    if (pending.payload instanceof byte[]) {
+                        builder.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON_VALUE);
+                    }
+
+                    CorrelationData correlation = null;
+                    if (confirms) {
+                        correlation = new CorrelationData();
+                        builder.setHeader(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, correlation);
+                    }
+
+                    Message<Object> message = builder.build();
+                    if (!streamBridge.send(pending.bindingName, message)) {
+                        return Mono.error(new EventPublishingException("Failed to send a " + pending.description + " to " + pending.bindingName));
+                    }
+
+                    if (correlation == null) {
+                        pending.sink.success();
+                        return Mono.<PendingConfirm>empty();
+                    }
+                    return Mono.just(new PendingConfirm(correlation, pending));
+                })
+                .onErrorResume(error -> failed(pending, error));
+    }
+
+    /**
+     * Passes the confirm to the caller of publish(), never fails.
+     */
+    private Mono<Void> awaitOutcome(PendingConfirm confirm) {
+        return awaitConfirm(confirm.correlation, confirm.pending)
+                .doOnSuccess(v -> confirm.pending.sink.success())
+                .onErrorResume(error -> failed(confirm.pending, error));
+    }
+
+    private <T> Mono<T> failed(PendingEvent pending, Throwable error) {
+        LOG.warn("Failed to publish a {} to {}: {}", pending.description, pending.bindingName, error.toString());
+        pending.sink.error(error);
+        return Mono.empty();
+    }
+
+    private Mono<Void> awaitConfirm(CorrelationData correlation, PendingEvent pending) {
+        return Mono.fromFuture(correlation.getFuture().completable())
+                .timeout(confirmTimeout)
+                .flatMap(confirm -> confirm.isAck() ?
+                        Mono.<Void>empty() :
+                        Mono.error(new EventPublishingException("The broker did not accept a " + pending.description +
+                                " for " + pending.bindingName + ": " + confirm.getReason())));
+    }
+
+    private static class PendingEvent {
+
+        private final String bindingName;
+        private final Object key;
+        private final Object payload;
+        private final String description;
+        private final MonoSink<Void> sink;
+
+        PendingEvent(String bindingName, Object key, Object payload, String description, MonoSink<Void> sink) {
+            this.bindingName = bindingName;
+            this.key = key;
+            this.payload = payload;
+            this.description = description;
+            this.sink = sink;
+        }
+    }
+
+    private static class PendingConfirm {
+
+        private final CorrelationData correlation;
+        private final PendingEvent pending;
+
+        PendingConfirm(CorrelationData correlation, PendingEvent pending) {
+            this.correlation = correlation;
+            this.pending = pending;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.mkurt.productcompositeservice.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * One request hedger per dependency, since each dependency has its own latency profile. The batch calls of the
+ * micro-batch loaders have hedgers of their own, a batch call takes longer than a single-product call.
+ */
+@Configuration
+public class HedgingConfig {
+
+    private final boolean enabled;
+    private final double percentile;
+    private final int windowSize;
+    private final int minSamples;
+    private final Duration minDelay;
+    private final double budgetRatio;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public HedgingConfig(@Value("${app.hedging.enabled:true}") boolean enabled,
+                         @Value("${app.hedging.percentile:0.95}") double percentile,
+                         @Value("${app.hedging.windowSize:1000}") int windowSize,
+                         @Value("${app.hedging.minSamples:100}") int minSamples,
+                         @Value("${app.hedging.minDelayMs:5}") long minDelayMs,
+                         @Value("${app.hedging.budgetRatio:0.05}") double budgetRatio,
+                         MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.windowSize = windowSize;
+        this.minSamples = minSamples;
+        this.minDelay = Duration.ofMillis(minDelayMs);
+        this.budgetRatio = budgetRatio;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Bean
+    public RequestHedger recommendationHedger() {
+        return new RequestHedger("recommendation", enabled, percentile, windowSize, minSamples, minDelay, budgetRatio, meterRegistry);
+    }
+
+    @Bean
+    public RequestHedger reviewHedger() {
+        return new RequestHedger("review", enabled, percentile, windowSize, minSamples, minDelay, budgetRatio, meterRegistry);
+    }
+
+    @Bean
+    public RequestHedger recommendationBatchHedger() {
+        return new RequestHedger("recommendation-batch", enabled, percentile, windowSize, minSamples, minDelay, budgetRatio, meterRegistry);
+    }
+
+    @Bean
+    public RequestHedger reviewBatchHedger() {
+        return new RequestHedger("review-batch", enabled, percentile, windowSize, minSamples, minDelay, budgetRatio, meterRegistry);
+    }
+}
@@ -0,0 +1,120 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mkurt.api.exception.InvalidInputException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the outcome of writes made with an Idempotency-Key header, so that a client retrying a write gets the
+ * original outcome instead of publishing the events once more. The outcome is shared while the write is in
+ * progress, i.e. a retry that arrives before the first attempt is done waits for it. Only successful writes are
+ * remembered, a failed write is forgotten so that it can be retried. A key is bound to the hash of the request it
+ * was first used with, a request with the same key but another body is rejected.
+ *
+ * The keys are kept in a size-bounded in-memory cache with a time to live, per instance of the composite service.
+ * A retry that is routed to another instance is published again, as new events with new eventIds, i.e. the
+ * duplicate filters of the consumers do not catch it. Retries with a key must therefore be routed to the same
+ * instance, e.g. by the gateway, for the key to take effect.
+ */
+@Component
+public class IdempotencyStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<String, Entry> outcomes;
+    private final Counter replays;
+
+    @Autowired
+    public IdempotencyStore(@Value("${app.idempotency.maxKeys:100000}") long maxKeys,
+                            @Value("${app.idempotency.ttlSeconds:3600}") long ttlSeconds,
+                            MeterRegistry meterRegistry) {
+
+        LOG.info("Creates an idempotency store, maxKeys = {}, ttlSeconds = {}", maxKeys, ttlSeconds);
+
+        this.outcomes = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+        this.replays = Counter.builder("idempotency.replays")
+                .description("The number of writes answered with the outcome of an earlier write with the same key")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The hex encoded SHA-256 hash of a request, e.g. of its JSON body.
+     */
+    public static String hash(byte[] request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(request);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    /**
+     * Runs the write unless a write with the same operation and key has already succeeded or is in progress.
+     * Without a key, the write is always run. The requestHash is only used with a key, it fails with an
+     * InvalidInputException if the key was used with a request with another hash.
+     */
+    public Mono<Void> execute(String operation, String idempotencyKey, Supplier<String> requestHash, Supplier<Mono<Void>> write) {
+        if (idempotencyKey == null) {
+            return write.get();
+        }
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new InvalidInputException("Invalid Idempotency-Key, expected 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+
+        String entryKey = operation + ":" + idempotencyKey;
+        String hash = requestHash.get();
+        return Mono.defer(() -> {
+            AtomicBoolean started = new AtomicBoolean();
+            Entry entry = outcomes.get(entryKey, key -> {
+                started.set(true);
+                return new Entry(hash, Mono.defer(write)
+                        .doOnError(ex -> outcomes.invalidate(key))
+                        .cache());
+            });
+
+            if (!started.get()) {
+                if (!entry.requestHash.equals(hash)) {
+                    LOG.debug("Rejects {}, the key was used with another request", entryKey);
+                    return Mono.error(new InvalidInputException("The Idempotency-Key was already used with another request"));
+                }
+                LOG.debug("Replays the outcome of {}", entryKey);
+                replays.increment();
+            }
+            return entry.outcome;
+        });
+    }
+
+    private static class Entry {
+        private final String requestHash;
+        private final Mono<Void> outcome;
+
+        private Entry(String requestHash, Mono<Void> outcome) {
+            this.requestHash = requestHash;
+            this.outcome = outcome;
+        }
+    }
+}
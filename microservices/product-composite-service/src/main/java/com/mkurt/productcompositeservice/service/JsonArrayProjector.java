@@ -0,0 +1,260 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Projects a JSON array of objects, as returned by the core services, onto a subset of the fields of each object
+ * without binding it to Java objects. The response body is fed to a non-blocking parser buffer by buffer, and the
+ * selected fields are written, in the given order, as tokens to a TokenBuffer that later can be spliced into
+ * another JSON document.
+ *
+ * The output matches what Jackson writes for a list of the composite's summary POJOs with the given fields: missing
+ * int fields are written as 0, null or missing string fields are left out, elements that are not objects are skipped. The serviceAddress of the first element is
+ * kept aside, the composite reports it in its serviceAddresses.
+ */
+public class JsonArrayProjector {
+
+    public enum FieldType {
+        INT,
+        STRING
+    }
+
+    public static class Field {
+
+        private final String name;
+        private final FieldType type;
+
+        public Field(String name, FieldType type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /**
+     * The projected array, and the serviceAddress of its first element, "" for an empty array.
+     */
+    public static class Projection {
+
+        public static final Projection EMPTY = new Projection(null, "");
+
+        private final TokenBuffer array;
+        private final String serviceAddress;
+
+        private Projection(TokenBuffer array, String serviceAddress) {
+            this.array = array;
+            this.serviceAddress = serviceAddress;
+        }
+
+        public String getServiceAddress() {
+            return serviceAddress;
+        }
+
+        public void writeTo(JsonGenerator generator) throws IOException {
+            if (array == null) {
+                generator.writeStartArray();
+                generator.writeEndArray();
+            } else {
+                array.serialize(generator);
+            }
+        }
+    }
+
+    private static final String SERVICE_ADDRESS = "serviceAddress";
+    private static final int IGNORED_FIELD = -1;
+    private static final int SERVICE_ADDRESS_FIELD = -2;
+
+    private final JsonFactory factory;
+    private final ObjectCodec codec;
+    private final Field[] fields;
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+
+    public JsonArrayProjector(JsonFactory factory, ObjectCodec codec, Field... fields) {
+        this.factory = factory;
+        this.codec = codec;
+        this.fields = fields;
+        for (int i = 0; i < fields.length; i++) {
+            fieldIndexes.put(fields[i].name, i);
+        }
+        fieldIndexes.put(SERVICE_ADDRESS, SERVICE_ADDRESS_FIELD);
+    }
+
+    /**
+     * Each buffer is released as soon as it is fed to the parser. The returned Mono fails if the body is not a
+     * complete JSON array.
+     */
+    public Mono<Projection> project(Flux<DataBuffer> body) {
+        return Mono.defer(() -> {
+            ProjectionState state;
+            try {
+                state = new ProjectionState();
+            } catch (IOException ex) {
+                return Mono.error(ex);
+            }
+
+            return body
+                    .doOnNext(buffer -> {
+                        try {
+                            state.feed(buffer);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        } finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                    })
+                    .then(Mono.fromCallable(state::finish));
+        });
+    }
+
+    private final class ProjectionState {
+
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private final TokenBuffer array;
+
+        // The field values of the current element, by field index
+        private final Object[] values = new Object[fields.length];
+
+        private int depth = 0;
+        private int skipDepth = 0;
+        private int currentField = IGNORED_FIELD;
+        private int elements = 0;
+        private String firstServiceAddress = null;
+        private boolean done = false;
+
+        ProjectionState() throws IOException {
+            parser = factory.createNonBlockingByteArrayParser();
+            feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+            array = new TokenBuffer(codec, false);
+        }
+
+        void feed(DataBuffer buffer) throws IOException {
+            // Jackson 2.13 can only feed the non-blocking parser from byte arrays
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            feeder.feedInput(bytes, 0, bytes.length);
+            drain();
+        }
+
+        Projection finish() throws IOException {
+            feeder.endOfInput();
+            drain();
+            parser.close();
+            if (!done) {
+                throw new JsonParseException(parser, "Unexpected end of the JSON array");
+            }
+            return elements == 0 ? Projection.EMPTY : new Projection(array, firstServiceAddress);
+        }
+
+        private void drain() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                handle(token);
+            }
+        }
+
+        private void handle(JsonToken token) throws IOException {
+            if (done) {
+                throw new JsonParseException(parser, "Unexpected content after the JSON array");
+            }
+
+            // Inside a nested structure that is not part of the projection
+            if (skipDepth > 0) {
+                if (token.isStructStart()) {
+                    skipDepth++;
+                } else if (token.isStructEnd()) {
+                    skipDepth--;
+                }
+                return;
+            }
+
+            switch (depth) {
+                case 0:
+                    if (token != JsonToken.START_ARRAY) {
+                        throw new JsonParseException(parser, "Expected a JSON array, got " + token);
+                    }
+                    array.writeStartArray();
+                    depth = 1;
+                    return;
+
+                case 1:
+                    if (token == JsonToken.END_ARRAY) {
+                        array.writeEndArray();
+                        done = true;
+                    } else if (token == JsonToken.START_OBJECT) {
+                        Arrays.fill(values, null);
+                        currentField = IGNORED_FIELD;
+                        depth = 2;
+                    } else if (token.isStructStart()) {
+                        skipDepth = 1;
+                    }
+                    return;
+
+                default:
+                    if (token == JsonToken.END_OBJECT) {
+                        writeElement();
+                        depth = 1;
+                    } else if (token == JsonToken.FIELD_NAME) {
+                        currentField = fieldIndexes.getOrDefault(parser.currentName(), IGNORED_FIELD);
+                    } else if (token.isStructStart()) {
+                        skipDepth = 1;
+                    } else {
+                        captureValue(token);
+                    }
+            }
+        }
+
+        private void captureValue(JsonToken token) throws IOException {
+            if (currentField == IGNORED_FIELD) {
+                return;
+            }
+
+            Object value;
+            if (token == JsonToken.VALUE_NULL) {
+                value = null;
+            } else if (token.isNumeric()) {
+                value = parser.getNumberValue();
+            } else {
+                value = parser.getText();
+            }
+
+            if (currentField == SERVICE_ADDRESS_FIELD) {
+                if (elements == 0) {
+                    firstServiceAddress = value == null ? null : value.toString();
+                }
+            } else {
+                values[currentField] = value;
+            }
+        }
+
+        private void writeElement() throws IOException {
+            array.writeStartObject();
+            for (int i = 0; i < fields.length; i++) {
+                Object value = values[i];
+                if (fields[i].type == FieldType.INT) {
+                    array.writeNumberField(fields[i].name, value instanceof Number ? ((Number) value).intValue() : 0);
+                } else if (value != null) {
+                    array.writeStringField(fields[i].name, value.toString());
+                }
+            }
+            array.writeEndObject();
+            elements++;
+        }
+    }
+}
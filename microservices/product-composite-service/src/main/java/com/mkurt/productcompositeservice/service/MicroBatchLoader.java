@@ -0,0 +1,158 @@
+package com.mkurt.productcompositeservice.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects the keys that are loaded from one dependency within a short window and loads them with one call to a
+ * multi-id endpoint, i.e. one request per batch instead of one request per key under load. A batch is dispatched
+ * window after its first key arrives, or at once when it reaches maxBatchSize keys. Concurrent loads of the same key
+ * in a batch share its result.
+ *
+ * The batch call emits (key, value) pairs, each one completes the loads of its key as soon as it arrives. Keys
+ * without a pair complete empty. If the batch call fails, the keys that got no value yet are loaded one by one
+ * instead, with the resilience of the single-key call. A disabled loader always loads key by key.
+ */
+public class MicroBatchLoader<K, V> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MicroBatchLoader.class);
+
+    private final String dependency;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Function<List<K>, Flux<Tuple2<K, V>>> batchLoader;
+    private final Function<K, Mono<V>> singleLoader;
+    private final Scheduler scheduler;
+    private final DistributionSummary batchSizes;
+
+    // The batch that collects keys, guarded by this
+    private Map<K, Sinks.One<V>> pending = new LinkedHashMap<>();
+
+    public MicroBatchLoader(String dependency, boolean enabled, Duration window, int maxBatchSize,
+                            Function<List<K>, Flux<Tuple2<K, V>>> batchLoader, Function<K, Mono<V>> singleLoader,
+                            MeterRegistry meterRegistry) {
+
+        LOG.info("Creates a micro-batch loader for {}, enabled = {}, window = {}, maxBatchSize = {}",
+                dependency, enabled, window, maxBatchSize);
+
+        this.dependency = dependency;
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.batchLoader = batchLoader;
+        this.singleLoader = singleLoader;
+        this.scheduler = Schedulers.parallel();
+        this.batchSizes = DistributionSummary.builder("microbatch.size")
+                .tag("dependency", dependency)
+                .description("The number of keys loaded per batch call")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Groups the values of a batch call that are emitted grouped by key, e.g. sorted by key, into one pair per key.
+     * The pair of a key is emitted as soon as the values of the next key start to arrive.
+     */
+    public static <K, T> Flux<Tuple2<K, List<T>>> groupByKey(Flux<T> values, Function<T, K> keyOf) {
+        return values
+                .windowUntilChanged(keyOf)
+                .concatMap(Flux::collectList)
+                .filter(group -> !group.isEmpty())
+                .map(group -> Tuples.of(keyOf.apply(group.get(0)), group));
+    }
+
+    public Mono<V> load(K key) {
+        if (!enabled) {
+            return singleLoader.apply(key);
+        }
+
+        return Mono.defer(() -> {
+            Sinks.One<V> sink;
+            Map<K, Sinks.One<V>> fullBatch = null;
+
+            synchronized (this) {
+                sink = pending.get(key);
+                if (sink == null) {
+                    sink = Sinks.one();
+                    pending.put(key, sink);
+                    if (pending.size() == 1) {
+                        Map<K, Sinks.One<V>> batch = pending;
+                        scheduler.schedule(() -> flush(batch), windowNanos, TimeUnit.NANOSECONDS);
+                    }
+                    if (pending.size() >= maxBatchSize) {
+                        fullBatch = pending;
+                        pending = new LinkedHashMap<>();
+                    }
+                }
+            }
+
+            if (fullBatch != null) {
+                dispatch(fullBatch);
+            }
+            return sink.asMono();
+        });
+    }
+
+    private void flush(Map<K, Sinks.One<V>> batch) {
+        synchronized (this) {
+            // Already dispatched when it became full
+            if (pending != batch) {
+                return;
+            }
+            pending = new LinkedHashMap<>();
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Map<K, Sinks.One<V>> batch) {
+        List<K> keys = new ArrayList<>(batch.keySet());
+        Set<K> loadedKeys = new HashSet<>();
+
+        LOG.debug("Loads {} keys from {} in one call", keys.size(), dependency);
+        batchSizes.record(keys.size());
+
+        // Deferred, so that a loader that throws instead of returning an error fails the loads rather than the scheduler
+        Flux.defer(() -> batchLoader.apply(keys))
+                .doOnNext(pair -> {
+                    Sinks.One<V> sink = batch.get(pair.getT1());
+                    if (sink != null && loadedKeys.add(pair.getT1())) {
+                        sink.tryEmitValue(pair.getT2());
+                    }
+                })
+                .subscribe(
+                        pair -> { },
+                        error -> {
+                            LOG.warn("Batch call to {} failed, loads {} keys one by one: {}",
+                                    dependency, keys.size() - loadedKeys.size(), error.toString());
+                            batch.forEach((key, sink) -> {
+                                if (!loadedKeys.contains(key)) {
+                                    Mono.defer(() -> singleLoader.apply(key)).subscribe(sink::tryEmitValue, sink::tryEmitError, sink::tryEmitEmpty);
+                                }
+                            });
+                        },
+                        () -> batch.forEach((key, sink) -> {
+                            if (!loadedKeys.contains(key)) {
+                                sink.tryEmitEmpty();
+                            }
+                        }));
+    }
+}
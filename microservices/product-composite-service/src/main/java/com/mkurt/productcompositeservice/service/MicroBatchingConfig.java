@@ -0,0 +1,68 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.mkurt.api.core.product.Product;
+import com.mkurt.api.core.recommendation.Recommendation;
+import com.mkurt.api.core.review.Review;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * One micro-batch loader per dependency, each one backed by the multi-id endpoint of its core service. The batch
+ * calls are protected like the single-product calls: the product call by the product retry, circuit breaker and
+ * time limiter, the recommendation and review calls by hedging. Their errors are passed on to the loaders.
+ */
+@Configuration
+public class MicroBatchingConfig {
+
+    private final boolean enabled;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final ProductCompositeIntegration integration;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public MicroBatchingConfig(@Value("${app.microBatching.enabled:true}") boolean enabled,
+                               @Value("${app.microBatching.windowMs:2}") long windowMs,
+                               @Value("${app.microBatching.maxBatchSize:100}") int maxBatchSize,
+                               ProductCompositeIntegration integration,
+                               MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.window = Duration.ofMillis(windowMs);
+        this.maxBatchSize = maxBatchSize;
+        this.integration = integration;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Bean
+    public MicroBatchLoader<Integer, Product> productLoader() {
+        return new MicroBatchLoader<>("product", enabled, window, maxBatchSize,
+                productIds -> integration.getProducts(productIds)
+                        .flatMapIterable(batch -> batch.getProducts())
+                        .map(product -> Tuples.of(product.getProductId(), product)),
+                productId -> integration.getProduct(productId, 0, 0),
+                meterRegistry);
+    }
+
+    @Bean
+    public MicroBatchLoader<Integer, List<Recommendation>> recommendationLoader() {
+        return new MicroBatchLoader<>("recommendation", enabled, window, maxBatchSize,
+                productIds -> MicroBatchLoader.groupByKey(integration.getRecommendationsForProducts(productIds), Recommendation::getProductId),
+                productId -> integration.loadRecommendations(productId).collectList(),
+                meterRegistry);
+    }
+
+    @Bean
+    public MicroBatchLoader<Integer, List<Review>> reviewLoader() {
+        return new MicroBatchLoader<>("review", enabled, window, maxBatchSize,
+                productIds -> MicroBatchLoader.groupByKey(integration.getReviewsForProducts(productIds), Review::getProductId),
+                productId -> integration.loadReviews(productId).collectList(),
+                meterRegistry);
+    }
+}
@@ -0,0 +1,124 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mkurt.api.composite.ProductAggregate;
+import com.mkurt.api.exception.InvalidInputException;
+import com.mkurt.api.exception.NotFoundException;
+import com.mkurt.productcompositeservice.service.JsonArrayProjector.Projection;
+import com.mkurt.util.http.HttpErrorInfo;
+import com.mkurt.util.http.ServiceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.server.RequestPredicate;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+
+/**
+ * Optional composition mode, enabled by app.composition.passThrough, where GET /product-composite/{productId}
+ * writes the aggregate straight from the response bodies of the recommendation and review services, see
+ * ProductAggregateJsonWriter. Router functions are consulted before the annotated controllers, calls with a
+ * delay or faultPercent other than 0 are not routed here but handled by ProductCompositeServiceImpl as before.
+ *
+ * Aggregates found in the aggregate cache are served from there, but pass-through reads do not add to the cache.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.composition.passThrough", havingValue = "true")
+public class PassThroughCompositionConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PassThroughCompositionConfig.class);
+
+    private final ProductCompositeIntegration integration;
+    private final ProductAggregateCache aggregateCache;
+    private final ServiceUtil serviceUtil;
+    private final ObjectMapper mapper;
+    private final ProductAggregateJsonWriter writer;
+
+    @Autowired
+    public PassThroughCompositionConfig(ProductCompositeIntegration integration,
+                                        ProductAggregateCache aggregateCache,
+                                        ServiceUtil serviceUtil,
+                                        ObjectMapper mapper) {
+        LOG.info("Composes product aggregates in pass-through mode");
+
+        this.integration = integration;
+        this.aggregateCache = aggregateCache;
+        this.serviceUtil = serviceUtil;
+        this.mapper = mapper;
+        this.writer = new ProductAggregateJsonWriter(mapper);
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> passThroughCompositeProductRoute() {
+        RequestPredicate noFaultSimulation = request ->
+                isZeroOrAbsent(request, "delay") && isZeroOrAbsent(request, "faultPercent");
+        // Reads of selected fields are left to ProductCompositeServiceImpl
+        RequestPredicate allFields = request -> request.queryParam("fields").isEmpty();
+
+        return RouterFunctions.route(GET("/product-composite/{productId}").and(noFaultSimulation).and(allFields), this::getCompositeProduct);
+    }
+
+    private Mono<ServerResponse> getCompositeProduct(ServerRequest request) {
+
+        int productId;
+        try {
+            productId = Integer.parseInt(request.pathVariable("productId"));
+        } catch (NumberFormatException ex) {
+            return ServerResponse.badRequest().build();
+        }
+
+        LOG.info("Will get composite product info for product.id={} in pass-through mode", productId);
+
+        ProductAggregate cachedAggregate = aggregateCache.get(productId);
+        Mono<byte[]> body = cachedAggregate != null ?
+                Mono.fromCallable(() -> mapper.writeValueAsBytes(cachedAggregate)) :
+                compose(productId);
+
+        return body
+                .flatMap(json -> ServerResponse.ok().contentType(APPLICATION_JSON).bodyValue(json))
+                .onErrorResume(NotFoundException.class, ex -> errorResponse(NOT_FOUND, request, ex))
+                .onErrorResume(InvalidInputException.class, ex -> errorResponse(UNPROCESSABLE_ENTITY, request, ex));
+    }
+
+    private Mono<byte[]> compose(int productId) {
+
+        // As for the ordinary composition, a failing recommendation or review call gives an empty list
+        Mono<Projection> recommendations = writer.projectRecommendations(integration.getRecommendationsJson(productId))
+                .onErrorResume(error -> {
+                    LOG.debug("Composes productId: {} without recommendations: {}", productId, error.toString());
+                    return Mono.just(Projection.EMPTY);
+                });
+        Mono<Projection> reviews = writer.projectReviews(integration.getReviewsJson(productId))
+                .onErrorResume(error -> {
+                    LOG.debug("Composes productId: {} without reviews: {}", productId, error.toString());
+                    return Mono.just(Projection.EMPTY);
+                });
+
+        return Mono.zip(integration.getProduct(productId, 0, 0), recommendations, reviews)
+                .map(values -> writer.write(values.getT1(), values.getT2(), values.getT3(), serviceUtil.getServiceAddress()))
+                .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()));
+    }
+
+    private Mono<ServerResponse> errorResponse(HttpStatus status, ServerRequest request, Exception ex) {
+        LOG.debug("Returning HTTP status: {} for path: {}, message: {}", status, request.path(), ex.getMessage());
+        return ServerResponse.status(status)
+                .contentType(APPLICATION_JSON)
+                .bodyValue(new HttpErrorInfo(status, request.path(), ex.getMessage()));
+    }
+
+    private static boolean isZeroOrAbsent(ServerRequest request, String name) {
+        return request.queryParam(name).map("0"::equals).orElse(true);
+    }
+}
@@ -0,0 +1,162 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mkurt.api.composite.ProductAggregate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * An in-process, size-bounded cache of product aggregates with a time to live.
+ * Hit, miss and eviction counts are published as the "cache.*" metrics with the tag cache=productAggregates,
+ * e.g. /actuator/metrics/cache.gets?tag=cache:productAggregates&tag=result:hit
+ */
+@Component
+public class ProductAggregateCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateCache.class);
+
+    private static final String CACHE_NAME = "productAggregates";
+
+    // How long an invalidation is remembered, longer than any load can take, see the time limiters
+    private static final long INVALIDATION_RETENTION_NANOS = Duration.ofMinutes(1).toNanos();
+
+    private final boolean enabled;
+    private final long settleNanos;
+    private final Cache<Integer, ProductAggregate> cache;
+    private final Counter invalidations;
+
+    // When each product was last invalidated, in System.nanoTime(), to detect aggregates that were loaded while an
+    // invalidation passed by. Range and full invalidations are kept apart, a range can cover any number of products.
+    private final Cache<Integer, Long> invalidatedAt;
+    private final ConcurrentLinkedDeque<RangeInvalidation> rangeInvalidations = new ConcurrentLinkedDeque<>();
+    private volatile long allInvalidatedAt;
+
+    @Autowired
+    public ProductAggregateCache(@Value("${app.aggregateCache.enabled:true}") boolean enabled,
+                                 @Value("${app.aggregateCache.maxSize:10000}") long maxSize,
+                                 @Value("${app.aggregateCache.ttlSeconds:30}") long ttlSeconds,
+                                 @Value("${app.aggregateCache.settleMs:0}") long settleMs,
+                                 MeterRegistry meterRegistry) {
+
+        LOG.info("Creates a product aggregate cache, enabled = {}, maxSize = {}, ttlSeconds = {}, settleMs = {}",
+                enabled, maxSize, ttlSeconds, settleMs);
+
+        this.enabled = enabled;
+        this.settleNanos = Duration.ofMillis(settleMs).toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        this.invalidatedAt = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofNanos(INVALIDATION_RETENTION_NANOS + settleNanos))
+                .build();
+        this.allInvalidatedAt = System.nanoTime() - INVALIDATION_RETENTION_NANOS - settleNanos;
+        this.invalidations = Counter.builder("cache.invalidations")
+                .tag("cache", CACHE_NAME)
+                .description("The number of entries invalidated by create and delete events")
+                .register(meterRegistry);
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    public ProductAggregate get(int productId) {
+        return enabled ? cache.getIfPresent(productId) : null;
+    }
+
+    /**
+     * Returns a stamp that shall be passed to put() once the aggregate is loaded.
+     */
+    public long startLoad() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Stores an aggregate unless its product was invalidated after the load started, or less than settleMs before.
+     * Otherwise we could put back data that an event has just marked as outdated: the cache is invalidated when an
+     * event is published and when this service receives it, which can be before the core services have applied it.
+     * Aggregates built from the product fallback cache are not stored, the next read shall try the product service again.
+     */
+    public void put(int productId, ProductAggregate aggregate, long loadStamp) {
+        if (!enabled || aggregate.isStale() || isInvalidatedSince(productId, loadStamp)) {
+            return;
+        }
+
+        cache.put(productId, aggregate);
+
+        // An invalidation could have slipped in between the check above and the put
+        if (isInvalidatedSince(productId, loadStamp)) {
+            cache.invalidate(productId);
+        }
+    }
+
+    public void invalidate(int productId) {
+        invalidatedAt.put(productId, System.nanoTime());
+        cache.invalidate(productId);
+        invalidations.increment();
+        LOG.debug("Invalidated the cached product aggregate for productId: {}", productId);
+    }
+
+    /**
+     * Invalidates the cached aggregates of all products from fromProductId to toProductId, both included.
+     */
+    public void invalidateRange(int fromProductId, int toProductId) {
+        long now = System.nanoTime();
+        rangeInvalidations.addLast(new RangeInvalidation(fromProductId, toProductId, now));
+        rangeInvalidations.removeIf(range -> now - range.nanos > INVALIDATION_RETENTION_NANOS + settleNanos);
+        cache.asMap().keySet().removeIf(productId -> productId >= fromProductId && productId <= toProductId);
+        invalidations.increment();
+        LOG.debug("Invalidated the cached product aggregates for productId {} to {}", fromProductId, toProductId);
+    }
+
+    public void invalidateAll() {
+        allInvalidatedAt = System.nanoTime();
+        cache.invalidateAll();
+    }
+
+    private boolean isInvalidatedSince(int productId, long loadStamp) {
+        // The stamps are compared by their difference, System.nanoTime() may overflow
+        long since = loadStamp - settleNanos;
+        if (allInvalidatedAt - since >= 0) {
+            return true;
+        }
+
+        Long productInvalidatedAt = invalidatedAt.getIfPresent(productId);
+        if (productInvalidatedAt != null && productInvalidatedAt - since >= 0) {
+            return true;
+        }
+
+        Iterator<RangeInvalidation> ranges = rangeInvalidations.iterator();
+        while (ranges.hasNext()) {
+            RangeInvalidation range = ranges.next();
+            if (range.nanos - since >= 0 && productId >= range.fromProductId && productId <= range.toProductId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class RangeInvalidation {
+
+        private final int fromProductId;
+        private final int toProductId;
+        private final long nanos;
+
+        RangeInvalidation(int fromProductId, int toProductId, long nanos) {
+            this.fromProductId = fromProductId;
+            this.toProductId = toProductId;
+            this.nanos = nanos;
+        }
+    }
+}
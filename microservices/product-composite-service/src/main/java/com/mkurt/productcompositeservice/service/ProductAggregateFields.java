@@ -0,0 +1,151 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.mkurt.api.composite.ProductAggregate;
+import com.mkurt.api.composite.RecommendationSummary;
+import com.mkurt.api.composite.ReviewSummary;
+import com.mkurt.api.exception.InvalidInputException;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The fields of a product aggregate selected by a read, e.g. fields=name,weight,reviews.author. A top level field
+ * selects all of its sub-fields, e.g. reviews is the same as reviews.reviewId,reviews.author,... The productId is
+ * always selected. The fields of the recommendations and reviews are named as in the recommendation and review
+ * services, i.e. they can be passed on to them as is.
+ */
+public class ProductAggregateFields {
+
+    private static final String RECOMMENDATIONS = "recommendations";
+    private static final String REVIEWS = "reviews";
+    private static final List<String> RECOMMENDATION_FIELDS = List.of("recommendationId", "author", "rate", "content");
+    private static final List<String> REVIEW_FIELDS = List.of("reviewId", "author", "subject", "content");
+
+    public static final ProductAggregateFields ALL = new ProductAggregateFields(true, true, true, RECOMMENDATION_FIELDS, REVIEW_FIELDS);
+
+    private final boolean name;
+    private final boolean weight;
+    private final boolean serviceAddresses;
+    private final List<String> recommendationFields;
+    private final List<String> reviewFields;
+
+    private ProductAggregateFields(boolean name, boolean weight, boolean serviceAddresses,
+                                   List<String> recommendationFields, List<String> reviewFields) {
+        this.name = name;
+        this.weight = weight;
+        this.serviceAddresses = serviceAddresses;
+        this.recommendationFields = recommendationFields;
+        this.reviewFields = reviewFields;
+    }
+
+    /**
+     * Returns ALL for a null list, i.e. if the read selects no fields.
+     */
+    public static ProductAggregateFields parse(List<String> fields) {
+        if (fields == null) {
+            return ALL;
+        }
+
+        boolean name = false;
+        boolean weight = false;
+        boolean serviceAddresses = false;
+        Set<String> recommendationFields = new LinkedHashSet<>();
+        Set<String> reviewFields = new LinkedHashSet<>();
+
+        for (String field : fields) {
+            String trimmedField = field.trim();
+            if (trimmedField.equals("productId")) {
+                // Always selected
+            } else if (trimmedField.equals("name")) {
+                name = true;
+            } else if (trimmedField.equals("weight")) {
+                weight = true;
+            } else if (trimmedField.equals("serviceAddresses")) {
+                serviceAddresses = true;
+            } else if (trimmedField.equals(RECOMMENDATIONS)) {
+                recommendationFields.addAll(RECOMMENDATION_FIELDS);
+            } else if (trimmedField.equals(REVIEWS)) {
+                reviewFields.addAll(REVIEW_FIELDS);
+            } else if (isSubField(trimmedField, RECOMMENDATIONS, RECOMMENDATION_FIELDS)) {
+                recommendationFields.add(trimmedField.substring(RECOMMENDATIONS.length() + 1));
+            } else if (isSubField(trimmedField, REVIEWS, REVIEW_FIELDS)) {
+                reviewFields.add(trimmedField.substring(REVIEWS.length() + 1));
+            } else {
+                throw new InvalidInputException("Invalid field: " + field);
+            }
+        }
+
+        return new ProductAggregateFields(name, weight, serviceAddresses,
+                List.copyOf(recommendationFields), List.copyOf(reviewFields));
+    }
+
+    private static boolean isSubField(String field, String parent, List<String> subFields) {
+        return field.startsWith(parent + ".") && subFields.contains(field.substring(parent.length() + 1));
+    }
+
+    public boolean isAll() {
+        return this == ALL;
+    }
+
+    public boolean includesRecommendations() {
+        return !recommendationFields.isEmpty();
+    }
+
+    public boolean includesAllRecommendationFields() {
+        return recommendationFields.size() == RECOMMENDATION_FIELDS.size();
+    }
+
+    public List<String> getRecommendationFields() {
+        return recommendationFields;
+    }
+
+    public boolean includesReviews() {
+        return !reviewFields.isEmpty();
+    }
+
+    public boolean includesAllReviewFields() {
+        return reviewFields.size() == REVIEW_FIELDS.size();
+    }
+
+    public List<String> getReviewFields() {
+        return reviewFields;
+    }
+
+    /**
+     * A copy of the aggregate with only the selected fields, the others are null, i.e. left out of the JSON.
+     */
+    public ProductAggregate project(ProductAggregate aggregate) {
+        if (isAll()) {
+            return aggregate;
+        }
+
+        List<RecommendationSummary> recommendations = !includesRecommendations() || aggregate.getRecommendations() == null ? null :
+                aggregate.getRecommendations().stream()
+                        .map(r -> new RecommendationSummary(
+                                recommendationFields.contains("recommendationId") ? r.getRecommendationId() : null,
+                                recommendationFields.contains("author") ? r.getAuthor() : null,
+                                recommendationFields.contains("rate") ? r.getRate() : null,
+                                recommendationFields.contains("content") ? r.getContent() : null))
+                        .collect(Collectors.toList());
+
+        List<ReviewSummary> reviews = !includesReviews() || aggregate.getReviews() == null ? null :
+                aggregate.getReviews().stream()
+                        .map(r -> new ReviewSummary(
+                                reviewFields.contains("reviewId") ? r.getReviewId() : null,
+                                reviewFields.contains("author") ? r.getAuthor() : null,
+                                reviewFields.contains("subject") ? r.getSubject() : null,
+                                reviewFields.contains("content") ? r.getContent() : null))
+                        .collect(Collectors.toList());
+
+        return new ProductAggregate(
+                aggregate.getProductId(),
+                name ? aggregate.getName() : null,
+                weight ? aggregate.getWeight() : null,
+                recommendations,
+                reviews,
+                serviceAddresses ? aggregate.getServiceAddresses() : null,
+                aggregate.isStale());
+    }
+}
@@ -0,0 +1,85 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mkurt.api.core.product.Product;
+import com.mkurt.productcompositeservice.service.JsonArrayProjector.Field;
+import com.mkurt.productcompositeservice.service.JsonArrayProjector.Projection;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static com.mkurt.productcompositeservice.service.JsonArrayProjector.FieldType.INT;
+import static com.mkurt.productcompositeservice.service.JsonArrayProjector.FieldType.STRING;
+
+/**
+ * Writes the JSON of a ProductAggregate straight from the response bodies of the recommendation and review services,
+ * i.e. without creating any Recommendation, Review or summary objects. The fields are written in the same order as
+ * Jackson serializes ProductAggregate, RecommendationSummary, ReviewSummary and ServiceAddresses, so that the
+ * output is the same as for the ordinary composition.
+ */
+public class ProductAggregateJsonWriter {
+
+    private final ObjectMapper mapper;
+    private final JsonArrayProjector recommendationProjector;
+    private final JsonArrayProjector reviewProjector;
+
+    public ProductAggregateJsonWriter(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.recommendationProjector = new JsonArrayProjector(mapper.getFactory(), mapper,
+                new Field("recommendationId", INT),
+                new Field("author", STRING),
+                new Field("rate", INT),
+                new Field("content", STRING));
+        this.reviewProjector = new JsonArrayProjector(mapper.getFactory(), mapper,
+                new Field("reviewId", INT),
+                new Field("author", STRING),
+                new Field("subject", STRING),
+                new Field("content", STRING));
+    }
+
+    public Mono<Projection> projectRecommendations(Flux<DataBuffer> body) {
+        return recommendationProjector.project(body);
+    }
+
+    public Mono<Projection> projectReviews(Flux<DataBuffer> body) {
+        return reviewProjector.project(body);
+    }
+
+    public byte[] write(Product product, Projection recommendations, Projection reviews, String compositeAddress) {
+        ByteArrayBuilder bytes = new ByteArrayBuilder();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(bytes)) {
+            generator.writeStartObject();
+            generator.writeNumberField("productId", product.getProductId());
+            if (product.getName() != null) {
+                generator.writeStringField("name", product.getName());
+            }
+            generator.writeNumberField("weight", product.getWeight());
+
+            generator.writeFieldName("recommendations");
+            recommendations.writeTo(generator);
+            generator.writeFieldName("reviews");
+            reviews.writeTo(generator);
+
+            generator.writeObjectFieldStart("serviceAddresses");
+            generator.writeStringField("cmp", compositeAddress);
+            generator.writeStringField("pro", product.getServiceAddress());
+            generator.writeStringField("rev", reviews.getServiceAddress());
+            generator.writeStringField("rec", recommendations.getServiceAddress());
+            generator.writeEndObject();
+
+            if (StaleProduct.isStale(product)) {
+                generator.writeBooleanField("stale", true);
+            }
+            generator.writeEndObject();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return bytes.toByteArray();
+    }
+}
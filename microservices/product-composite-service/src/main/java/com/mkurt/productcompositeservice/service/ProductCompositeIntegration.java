@@ -2,6 +2,7 @@ package com.mkurt.productcompositeservice.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mkurt.api.core.product.Product;
+import com.mkurt.api.core.product.ProductBatch;
 import com.mkurt.api.core.product.ProductService;
 import com.mkurt.api.core.recommendation.Recommendation;
 import com.mkurt.api.core.recommendation.RecommendationService;
@@ -15,30 +16,36 @@ import com.mkurt.util.http.ServiceUtil;
 import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
-import io.github.resilience4j.timelimiter.annotation.TimeLimiter;
+import io.github.resilience4j.timelimiter.TimeLimiter;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.actuate.health.Health;
-import org.springframework.cloud.stream.function.StreamBridge;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.mkurt.api.event.Event.Type.CREATE;
 import static com.mkurt.api.event.Event.Type.DELETE;
 import static java.util.logging.Level.FINE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static reactor.core.publisher.Flux.empty;
 
 @Service
@@ -53,44 +60,68 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     private static final String RECOMMENDATION_SERVICE_URL = "http://recommendation";
     private static final String REVIEW_SERVICE_URL = "http://review";
 
-    private final StreamBridge streamBridge;
+    // The max number of productIds of the multi-id endpoints and list deletes of the core services
+    private static final int MAX_DELETE_LIST_IDS = 1000;
 
-    private final Scheduler publishEventScheduler;
+    private final EventPublisher publisher;
+    private final EventOutbox outbox;
+    private final EventPartitioner partitioner;
 
     private final ServiceUtil serviceUtil;
 
+    private final ProductFallbackStore fallbackStore;
+
+    private final RequestHedger recommendationHedger;
+    private final RequestHedger reviewHedger;
+    private final RequestHedger recommendationBatchHedger;
+    private final RequestHedger reviewBatchHedger;
+
+    private final DownstreamMetrics metrics;
+    private final TimeLimiter productTimeLimiter;
+
     @Autowired
     public ProductCompositeIntegration(
-            @Qualifier("publishEventScheduler") Scheduler publishEventScheduler,
-
             WebClient.Builder webClient,
             ObjectMapper mapper,
-            StreamBridge streamBridge,
-            ServiceUtil serviceUtil
+            EventPublisher publisher,
+            EventOutbox outbox,
+            EventPartitioner partitioner,
+            ServiceUtil serviceUtil,
+            ProductFallbackStore fallbackStore,
+            @Qualifier("recommendationHedger") RequestHedger recommendationHedger,
+            @Qualifier("reviewHedger") RequestHedger reviewHedger,
+            @Qualifier("recommendationBatchHedger") RequestHedger recommendationBatchHedger,
+            @Qualifier("reviewBatchHedger") RequestHedger reviewBatchHedger,
+            DownstreamMetrics metrics,
+            TimeLimiterRegistry timeLimiterRegistry
     ) {
-        this.publishEventScheduler = publishEventScheduler;
         this.webClient = webClient.build();
         this.mapper = mapper;
-        this.streamBridge = streamBridge;
+        this.publisher = publisher;
+        this.outbox = outbox;
+        this.partitioner = partitioner;
         this.serviceUtil = serviceUtil;
+        this.fallbackStore = fallbackStore;
+        this.recommendationHedger = recommendationHedger;
+        this.reviewHedger = reviewHedger;
+        this.recommendationBatchHedger = recommendationBatchHedger;
+        this.reviewBatchHedger = reviewBatchHedger;
+        this.metrics = metrics;
+        this.productTimeLimiter = timeLimiterRegistry.timeLimiter("product");
     }
 
     @Override
     public Mono<Product> createProduct(Product body) {
 
-        return Mono.fromCallable(() -> {
-            sendMessage("products-out-0", new Event(CREATE, body.getProductId(), body));
-            return body;
-        }).subscribeOn(publishEventScheduler);
-        /** Since the sendMessage() uses blocking code, when calling streamBridge, it is executed on a thread provided
-         * by a dedicated scheduler, publishEventScheduler. This is the same approach as for handling blocking JPA code
-         * in the review microservice. See the section on Dealing with blocking code for details. */
+        // Publishing does not block the caller, see publish()
+        return publish("products-out-0", new Event(CREATE, body.getProductId(), body))
+                .thenReturn(body);
     }
 
     // The circuit breaker is triggered by an exception, not by a timeout itself.
     // To be able to trigger the circuit breaker after a timeout, we should add a time limiter.
+    // The time limiter is applied per attempt in metrics.timed(), so that a timeout is timed as such, see DownstreamMetrics.
     @Retry(name = "product")
-    @TimeLimiter(name = "product")
     @CircuitBreaker(name = "product", fallbackMethod = "getProductFallBackValue")
     @Override
     public Mono<Product> getProduct(int productId, int delay, int faultPercent) {
@@ -102,102 +133,338 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
         LOG.debug("Will call the getProduct API on URL: {}", url);
 
-        return webClient
+        // The retry resubscribes to the returned Mono, each subscription is timed as a new attempt.
+        return metrics.timed("product", new AtomicInteger(), productTimeLimiter, webClient
                 .get()
                 .uri(url)
                 .retrieve()
                 .bodyToMono(Product.class)
-                .log(LOG.getName(), FINE)
-                .onErrorMap(WebClientResponseException.class, this::handleException);
+                .doOnNext(fallbackStore::put)
+                .onErrorMap(WebClientResponseException.class, this::handleException));
     }
 
     // CallNotPermittedException is thrown by CircuitBreaker when circuit is open.
+    // Answers with the last known product info, marked as stale, instead of failing the whole composite read.
     private Mono<Product> getProductFallBackValue(int productId, int delay, int faultPercent, CallNotPermittedException e) {
-        LOG.warn("Creating a fail-fast fallback product for productId = {}, " +
+        LOG.warn("Looks up a fallback product for productId = {}, " +
                         "delay = {}, faultPercent = {} and exception = {} ",
                 productId, delay, faultPercent, e.toString());
 
-        if(productId == 13) { // just for point that productId 13 is not found in the cache.
+        Product product = fallbackStore.get(productId);
+        metrics.recordFallback("product", product == null ? DownstreamMetrics.CIRCUIT_OPEN : DownstreamMetrics.FALLBACK);
+        if (product == null) {
             String errMsg = "Product Id: " + productId + " not found in fallback cache!";
             LOG.warn(errMsg);
             throw new NotFoundException(errMsg);
         }
-        return Mono.just(new Product(productId, "Fallback product" + productId, productId, serviceUtil.getServiceAddress()));
+        return Mono.just(product);
+    }
+
+    /**
+     * One call for all the products, products that do not exist are listed as missing in the response. Protected
+     * like getProduct(), by the same retry, circuit breaker and time limiter.
+     */
+    @Retry(name = "product")
+    @CircuitBreaker(name = "product", fallbackMethod = "getProductsFallBackValue")
+    @Override
+    public Mono<ProductBatch> getProducts(List<Integer> productIds) {
+
+        String url = PRODUCT_SERVICE_URL + "/product?productIds=" + joinIds(productIds);
+
+        LOG.debug("Will call the getProducts API on URL: {}", url);
+
+        // The time limiter is applied per attempt in metrics.timed(), as for getProduct()
+        return metrics.timed("product", new AtomicInteger(), productTimeLimiter, webClient
+                .get()
+                .uri(url)
+                .retrieve()
+                .bodyToMono(ProductBatch.class)
+                .doOnNext(batch -> batch.getProducts().forEach(fallbackStore::put))
+                .onErrorMap(WebClientResponseException.class, this::handleException));
+    }
+
+    // Answers with the last known info of the products, marked as stale, like getProductFallBackValue().
+    // The products that are not in the fallback store are listed as missing.
+    private Mono<ProductBatch> getProductsFallBackValue(List<Integer> productIds, CallNotPermittedException e) {
+        LOG.warn("Looks up fallback products for {} productIds and exception = {} ", productIds.size(), e.toString());
+
+        List<Product> products = new ArrayList<>();
+        List<Integer> missingProductIds = new ArrayList<>();
+        for (Integer productId : productIds) {
+            Product product = fallbackStore.get(productId);
+            if (product == null) {
+                missingProductIds.add(productId);
+            } else {
+                products.add(product);
+            }
+        }
+        metrics.recordFallback("product", products.isEmpty() ? DownstreamMetrics.CIRCUIT_OPEN : DownstreamMetrics.FALLBACK);
+        return Mono.just(new ProductBatch(products, missingProductIds));
     }
 
     @Override
     public Mono<Void> deleteProduct(int productId) {
 
-        return Mono.fromRunnable(() -> sendMessage("products-out-0", new Event(DELETE, productId, null)))
-                .subscribeOn(publishEventScheduler).then();
+        return Mono.fromRunnable(() -> fallbackStore.remove(productId))
+                .then(publish("products-out-0", new Event(DELETE, productId, null)));
+    }
+
+    /**
+     * Publishes one DELETE_LIST event per partition for the products in it, the product service deletes them in
+     * one write per partition.
+     */
+    @Override
+    public Mono<Void> deleteProducts(List<Integer> productIds) {
+
+        return Mono.fromRunnable(() -> fallbackStore.removeAll(productIds))
+                .then(publishDeleteList("products-out-0", productIds));
+    }
+
+    /**
+     * Publishes the DELETE_RANGE event to each partition of the range, the product service deletes the range in
+     * one write per partition.
+     */
+    @Override
+    public Mono<Void> deleteProductRange(int fromProductId, int toProductId) {
+
+        return Mono.fromRunnable(() -> fallbackStore.removeRange(fromProductId, toProductId))
+                .then(publishDeleteRange("products-out-0", fromProductId, toProductId));
     }
 
     @Override
     public Mono<Recommendation> createRecommendation(Recommendation body) {
 
-        return Mono.fromCallable(() -> {
-            sendMessage("recommendations-out-0", new Event(CREATE, body.getProductId(), body));
-            return body;
-        }).subscribeOn(publishEventScheduler);
+        return publish("recommendations-out-0", new Event(CREATE, body.getProductId(), body))
+                .thenReturn(body);
+    }
+
+    /**
+     * Publishes all recommendations as one CREATE_BATCH event, i.e. one message and one write in the recommendation service.
+     */
+    @Override
+    public Flux<Recommendation> createRecommendations(List<Recommendation> body) {
+
+        return publish("recommendations-out-0", Event.createBatch(body.get(0).getProductId(), body))
+                .thenMany(Flux.fromIterable(body));
     }
 
     @Override
     public Flux<Recommendation> getRecommendations(int productId) {
 
+        // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
+        return loadRecommendations(productId).onErrorResume(error -> empty());
+    }
+
+    /**
+     * Same as getRecommendations(), but errors are passed on, for callers that must know that a result is partial.
+     */
+    public Flux<Recommendation> loadRecommendations(int productId) {
+
         String url = RECOMMENDATION_SERVICE_URL + "/recommendation?productId=" + productId;
 
         LOG.debug("Will call the getRecommendations API on URL: {}", url);
 
-        // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-        return webClient
+        // A slow call is hedged with a second call, see RequestHedger. The hedged call is timed as attempt 2.
+        AtomicInteger attempts = new AtomicInteger();
+        return recommendationHedger.hedge(() -> metrics.timed("recommendation", attempts, null, webClient
                 .get()
                 .uri(url)
                 .retrieve()
-                .bodyToFlux(Recommendation.class)
-                .log(LOG.getName(), FINE)
+                .bodyToFlux(Recommendation.class)));
+    }
+
+    /**
+     * Same as getRecommendations(), but the recommendation service reads only the given fields.
+     */
+    @Override
+    public Flux<Recommendation> getRecommendations(int productId, List<String> fields) {
+
+        String url = RECOMMENDATION_SERVICE_URL + "/recommendation?productId=" + productId + "&fields=" + String.join(",", fields);
+
+        LOG.debug("Will call the getRecommendations API on URL: {}", url);
+
+        AtomicInteger attempts = new AtomicInteger();
+        return recommendationHedger.hedge(() -> metrics.timed("recommendation", attempts, null, webClient
+                        .get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(Recommendation.class)))
                 .onErrorResume(error -> empty());
     }
 
+    /**
+     * One call for the recommendations of all the products, streamed as NDJSON, grouped by productId. Hedged like
+     * loadRecommendations(), and errors are passed on as well: the micro-batch loader then loads the products that got
+     * no recommendations one by one, and an aggregate that still lacks them is marked partial and not cached.
+     */
+    @Override
+    public Flux<Recommendation> getRecommendationsForProducts(List<Integer> productIds) {
+
+        String url = RECOMMENDATION_SERVICE_URL + "/recommendation?productIds=" + joinIds(productIds);
+
+        LOG.debug("Will call the getRecommendationsForProducts API on URL: {}", url);
+
+        AtomicInteger attempts = new AtomicInteger();
+        return recommendationBatchHedger.hedge(() -> metrics.timed("recommendation", attempts, null, webClient
+                .get()
+                .uri(url)
+                .accept(APPLICATION_NDJSON)
+                .retrieve()
+                .bodyToFlux(Recommendation.class)));
+    }
+
+    /**
+     * Same call as getRecommendations(), but the response body is returned as is, for the pass-through composition.
+     * Errors are not handled here, the caller shall discard what it got so far.
+     */
+    public Flux<DataBuffer> getRecommendationsJson(int productId) {
+
+        String url = RECOMMENDATION_SERVICE_URL + "/recommendation?productId=" + productId;
+
+        LOG.debug("Will call the getRecommendations API on URL: {}", url);
+
+        AtomicInteger attempts = new AtomicInteger();
+        return recommendationHedger.hedge(() -> metrics.timed("recommendation", attempts, null, webClient
+                .get()
+                .uri(url)
+                .retrieve()
+                .bodyToFlux(DataBuffer.class)));
+    }
+
     @Override
     public Mono<Void> deleteRecommendations(int productId) {
 
-        return Mono.fromRunnable(() -> sendMessage("recommendations-out-0", new Event(DELETE, productId, null)))
-                .subscribeOn(publishEventScheduler)
-                .then();
+        return publish("recommendations-out-0", new Event(DELETE, productId, null));
+    }
+
+    @Override
+    public Mono<Void> deleteRecommendationsForProducts(List<Integer> productIds) {
+
+        return publishDeleteList("recommendations-out-0", productIds);
+    }
+
+    @Override
+    public Mono<Void> deleteRecommendationsForProductRange(int fromProductId, int toProductId) {
+
+        return publishDeleteRange("recommendations-out-0", fromProductId, toProductId);
     }
 
     @Override
     public Mono<Review> createReview(Review body) {
 
-        return Mono.fromCallable(() -> {
-            sendMessage("reviews-out-0", new Event(CREATE, body.getProductId(), body));
-            return body;
-        }).subscribeOn(publishEventScheduler);
+        return publish("reviews-out-0", new Event(CREATE, body.getProductId(), body))
+                .thenReturn(body);
+    }
+
+    /**
+     * Publishes all reviews as one CREATE_BATCH event, i.e. one message and one write in the review service.
+     */
+    @Override
+    public Flux<Review> createReviews(List<Review> body) {
+
+        return publish("reviews-out-0", Event.createBatch(body.get(0).getProductId(), body))
+                .thenMany(Flux.fromIterable(body));
     }
 
     @Override
     public Flux<Review> getReviews(int productId) {
 
+        // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
+        return loadReviews(productId).onErrorResume(error -> empty());
+    }
+
+    /**
+     * Same as getReviews(), but errors are passed on, for callers that must know that a result is partial.
+     */
+    public Flux<Review> loadReviews(int productId) {
+
         String url = REVIEW_SERVICE_URL + "/review?productId=" + productId;
 
         LOG.debug("Will call the getReviews API on URL: {}", url);
 
-        // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-        return webClient
+        // A slow call is hedged with a second call, see RequestHedger. The hedged call is timed as attempt 2.
+        AtomicInteger attempts = new AtomicInteger();
+        return reviewHedger.hedge(() -> metrics.timed("review", attempts, null, webClient
                 .get()
                 .uri(url)
                 .retrieve()
-                .bodyToFlux(Review.class)
-                .log(LOG.getName(), FINE)
+                .bodyToFlux(Review.class)));
+    }
+
+    /**
+     * Same as getReviews(), but the review service reads only the given fields.
+     */
+    @Override
+    public Flux<Review> getReviews(int productId, List<String> fields) {
+
+        String url = REVIEW_SERVICE_URL + "/review?productId=" + productId + "&fields=" + String.join(",", fields);
+
+        LOG.debug("Will call the getReviews API on URL: {}", url);
+
+        AtomicInteger attempts = new AtomicInteger();
+        return reviewHedger.hedge(() -> metrics.timed("review", attempts, null, webClient
+                        .get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(Review.class)))
                 .onErrorResume(error -> empty());
     }
 
+    /**
+     * One call for the reviews of all the products, streamed as NDJSON, grouped by productId. Hedged like
+     * loadReviews(), and errors are passed on as well: the micro-batch loader then loads the products that got
+     * no reviews one by one, and an aggregate that still lacks them is marked partial and not cached.
+     */
+    @Override
+    public Flux<Review> getReviewsForProducts(List<Integer> productIds) {
+
+        String url = REVIEW_SERVICE_URL + "/review?productIds=" + joinIds(productIds);
+
+        LOG.debug("Will call the getReviewsForProducts API on URL: {}", url);
+
+        AtomicInteger attempts = new AtomicInteger();
+        return reviewBatchHedger.hedge(() -> metrics.timed("review", attempts, null, webClient
+                .get()
+                .uri(url)
+                .accept(APPLICATION_NDJSON)
+                .retrieve()
+                .bodyToFlux(Review.class)));
+    }
+
+    /**
+     * Same call as getReviews(), but the response body is returned as is, for the pass-through composition.
+     * Errors are not handled here, the caller shall discard what it got so far.
+     */
+    public Flux<DataBuffer> getReviewsJson(int productId) {
+
+        String url = REVIEW_SERVICE_URL + "/review?productId=" + productId;
+
+        LOG.debug("Will call the getReviews API on URL: {}", url);
+
+        AtomicInteger attempts = new AtomicInteger();
+        return reviewHedger.hedge(() -> metrics.timed("review", attempts, null, webClient
+                .get()
+                .uri(url)
+                .retrieve()
+                .bodyToFlux(DataBuffer.class)));
+    }
+
     @Override
     public Mono<Void> deleteReviews(int productId) {
 
-        return Mono.fromRunnable(() -> sendMessage("reviews-out-0", new Event(DELETE, productId, null)))
-                .subscribeOn(publishEventScheduler)
-                .then();
+        return publish("reviews-out-0", new Event(DELETE, productId, null));
+    }
+
+    @Override
+    public Mono<Void> deleteReviewsForProducts(List<Integer> productIds) {
+
+        return publishDeleteList("reviews-out-0", productIds);
+    }
+
+    @Override
+    public Mono<Void> deleteReviewsForProductRange(int fromProductId, int toProductId) {
+
+        return publishDeleteRange("reviews-out-0", fromProductId, toProductId);
     }
 
     public Mono<Health> getProductHealth() {
@@ -225,14 +492,79 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
                 .log(LOG.getName(), FINE);
     }
 
-    private void sendMessage(String bindingName, Event event) {
-        LOG.debug("Sending a {} message to {}", event.getEventType(), bindingName);
+    /**
+     * Publishes the products of many composite products as CREATE_BATCH events, one per partition, see
+     * publishBatches().
+     */
+    public Flux<Tuple2<Integer, String>> createProductBatches(List<Product> products) {
+        return publishBatches("products-out-0", products, Product::getProductId);
+    }
 
-        Message message = MessageBuilder.withPayload(event)
-                .setHeader("partitionKey", event.getKey())
-                .build();
+    public Flux<Tuple2<Integer, String>> createRecommendationBatches(List<Recommendation> recommendations) {
+        return publishBatches("recommendations-out-0", recommendations, Recommendation::getProductId);
+    }
+
+    public Flux<Tuple2<Integer, String>> createReviewBatches(List<Review> reviews) {
+        return publishBatches("reviews-out-0", reviews, Review::getProductId);
+    }
+
+    /**
+     * One CREATE_BATCH event per partition of the binding, for the entities of all the products that go to the
+     * partition, i.e. the event stays in order with the other events of its products. Never fails, emits the
+     * productIds of the events that could not be published instead, with the reason.
+     */
+    private <T> Flux<Tuple2<Integer, String>> publishBatches(String bindingName, List<T> items, Function<T, Integer> keyOf) {
+        return Flux.fromIterable(partitioner.splitByPartition(bindingName, items, keyOf))
+                .flatMap(partitionItems -> {
+                    List<Integer> keys = partitionItems.stream().map(keyOf).distinct().collect(Collectors.toList());
+                    return publish(bindingName, Event.createBatchForKeys(keys, partitionItems))
+                            .thenMany(Flux.<Tuple2<Integer, String>>empty())
+                            .onErrorResume(ex -> Flux.fromIterable(keys).map(key -> Tuples.of(key, String.valueOf(ex.getMessage()))));
+                });
+    }
+
+    /**
+     * With the outbox enabled, the returned Mono completes when the event is stored in the outbox, otherwise when
+     * the broker has confirmed it.
+     */
+    private Mono<Void> publish(String bindingName, Event event) {
+        return outbox.isEnabled() ?
+                outbox.append(bindingName, event) :
+                publisher.publish(bindingName, event);
+    }
+
+    /**
+     * A DELETE_LIST event only goes to the partition of its first key, so the list is split by partition. The core
+     * services delete at most MAX_DELETE_LIST_IDS products at once, so the list of a partition is split into events
+     * of that many ids.
+     */
+    private Mono<Void> publishDeleteList(String bindingName, List<Integer> productIds) {
+        return Flux.fromIterable(partitioner.splitByPartition(bindingName, productIds, Function.identity()))
+                .flatMapIterable(partitionIds -> chunks(partitionIds, MAX_DELETE_LIST_IDS))
+                .flatMap(chunkIds -> publish(bindingName, Event.deleteList(chunkIds)))
+                .then();
+    }
+
+    private static <T> List<List<T>> chunks(List<T> items, int chunkSize) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += chunkSize) {
+            chunks.add(new ArrayList<>(items.subList(from, Math.min(items.size(), from + chunkSize))));
+        }
+        return chunks;
+    }
+
+    /**
+     * The products of a range are spread over all partitions, so the DELETE_RANGE event is sent to each of them.
+     * The consumer of every partition deletes the whole range, which is harmless for the keys of other partitions.
+     */
+    private Mono<Void> publishDeleteRange(String bindingName, int fromProductId, int toProductId) {
+        return Flux.fromIterable(partitioner.keysPerPartition(bindingName, fromProductId, toProductId))
+                .flatMap(key -> publish(bindingName, Event.deleteRange(key, fromProductId, toProductId)))
+                .then();
+    }
 
-        streamBridge.send(bindingName, message);
+    private static String joinIds(List<Integer> ids) {
+        return ids.stream().map(String::valueOf).collect(Collectors.joining(","));
     }
 
     private Throwable handleException(Throwable ex) {
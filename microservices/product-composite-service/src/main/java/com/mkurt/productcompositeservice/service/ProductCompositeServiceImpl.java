@@ -1,20 +1,36 @@
 package com.mkurt.productcompositeservice.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mkurt.api.composite.*;
 import com.mkurt.api.core.product.Product;
 import com.mkurt.api.core.recommendation.Recommendation;
 import com.mkurt.api.core.review.Review;
+import com.mkurt.api.exception.InvalidInputException;
+import com.mkurt.api.exception.NotFoundException;
 import com.mkurt.util.http.ServiceUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static com.mkurt.api.composite.ProductAggregateChunk.Type.*;
 import static java.util.logging.Level.FINE;
 
 @RestController
@@ -24,36 +40,88 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
     private final ServiceUtil serviceUtil;
     private final ProductCompositeIntegration integration;
+    private final ProductAggregateCache aggregateCache;
+    private final IdempotencyStore idempotencyStore;
+    private final int batchMaxSize;
+    private final int batchConcurrency;
+    private final ObjectMapper mapper;
+    private final int importBatchSize;
+    private final Duration importBatchWindow;
+    private final int bulkDeleteMaxIds;
+    private final MicroBatchLoader<Integer, Product> productLoader;
+    private final MicroBatchLoader<Integer, List<Recommendation>> recommendationLoader;
+    private final MicroBatchLoader<Integer, List<Review>> reviewLoader;
+
+    private final Map<Integer, Mono<ProductAggregate>> inFlightReads = new ConcurrentHashMap<>();
 
     @Autowired
-    public ProductCompositeServiceImpl(ServiceUtil serviceUtil, ProductCompositeIntegration integration) {
+    public ProductCompositeServiceImpl(ServiceUtil serviceUtil,
+                                       ProductCompositeIntegration integration,
+                                       ProductAggregateCache aggregateCache,
+                                       IdempotencyStore idempotencyStore,
+                                       @Value("${app.batch.maxSize:200}") int batchMaxSize,
+                                       @Value("${app.batch.concurrency:16}") int batchConcurrency,
+                                       ObjectMapper mapper,
+                                       @Value("${app.import.batchSize:500}") int importBatchSize,
+                                       @Value("${app.import.batchWindowMs:100}") long importBatchWindowMs,
+                                       @Value("${app.bulkDelete.maxIds:10000}") int bulkDeleteMaxIds,
+                                       MicroBatchLoader<Integer, Product> productLoader,
+                                       MicroBatchLoader<Integer, List<Recommendation>> recommendationLoader,
+                                       MicroBatchLoader<Integer, List<Review>> reviewLoader) {
         this.serviceUtil = serviceUtil;
         this.integration = integration;
+        this.aggregateCache = aggregateCache;
+        this.idempotencyStore = idempotencyStore;
+        this.batchMaxSize = batchMaxSize;
+        this.batchConcurrency = batchConcurrency;
+        this.mapper = mapper;
+        this.importBatchSize = importBatchSize;
+        this.importBatchWindow = Duration.ofMillis(importBatchWindowMs);
+        this.bulkDeleteMaxIds = bulkDeleteMaxIds;
+        this.productLoader = productLoader;
+        this.recommendationLoader = recommendationLoader;
+        this.reviewLoader = reviewLoader;
     }
 
     @Override
-    public Mono<Void> createCompositeProduct(ProductAggregate body) {
+    public Mono<Void> createCompositeProduct(ProductAggregate body, String idempotencyKey) {
+        return idempotencyStore.execute("create", idempotencyKey, () -> requestHash(body), () -> createCompositeProduct(body));
+    }
+
+    private String requestHash(ProductAggregate body) {
+        try {
+            return IdempotencyStore.hash(mapper.writeValueAsBytes(body));
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Failed to serialize the request", ex);
+        }
+    }
+
+    private Mono<Void> createCompositeProduct(ProductAggregate body) {
 
         try {
             List<Mono> monoList = new ArrayList<>();
 
             LOG.debug("createCompositeProduct: creates a new composite entity for productId: {}", body.getProductId());
 
+            aggregateCache.invalidate(body.getProductId());
+
             Product product = new Product(body.getProductId(), body.getName(), body.getWeight(), null);
             monoList.add(integration.createProduct(product));
 
-            if (body.getRecommendations() != null) {
-                body.getRecommendations().forEach(r -> {
-                    Recommendation recommendation = new Recommendation(body.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null);
-                    monoList.add(integration.createRecommendation(recommendation));
-                });
+            // More than one recommendation or review is published as one batch event per topic.
+            // The batch is collected into a list since zip() completes without a value as soon as one source is empty.
+            if (body.getRecommendations() != null && !body.getRecommendations().isEmpty()) {
+                List<Recommendation> recommendations = recommendationsOf(body);
+                monoList.add(recommendations.size() == 1 ?
+                        integration.createRecommendation(recommendations.get(0)) :
+                        integration.createRecommendations(recommendations).collectList());
             }
 
-            if (body.getReviews() != null) {
-                body.getReviews().forEach(r -> {
-                    Review review = new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null);
-                    monoList.add(integration.createReview(review));
-                });
+            if (body.getReviews() != null && !body.getReviews().isEmpty()) {
+                List<Review> reviews = reviewsOf(body);
+                monoList.add(reviews.size() == 1 ?
+                        integration.createReview(reviews.get(0)) :
+                        integration.createReviews(reviews).collectList());
             }
 
             LOG.debug("createCompositeProduct: composite entities created for productId: {}", body.getProductId());
@@ -68,31 +136,287 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
         }
     }
 
+    private static List<Recommendation> recommendationsOf(ProductAggregate body) {
+        return body.getRecommendations() == null ? List.of() : body.getRecommendations().stream()
+                .map(r -> new Recommendation(body.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Review> reviewsOf(ProductAggregate body) {
+        return body.getReviews() == null ? List.of() : body.getReviews().stream()
+                .map(r -> new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The lines are parsed one by one and imported in batches of up to importBatchSize lines, a batch is cut after
+     * importBatchWindowMs if the lines arrive slowly. The products, recommendations and reviews of a batch are
+     * published as CREATE_BATCH events, one per partition of each topic, instead of one or more events per line.
+     * The next batch is not requested until all events of the current one are published, so the request body is
+     * read no faster than the events can be published. The results of a batch are emitted in the order of its
+     * lines once the batch is done.
+     */
+    @Override
+    public Flux<ProductImportResult> importCompositeProducts(Flux<String> lines) {
+
+        LOG.info("Will import composite products in batches of {}", importBatchSize);
+
+        return lines
+                .index((index, line) -> new ImportLine(index + 1, line))
+                .filter(line -> !line.json.isBlank())
+                .map(this::parseImportLine)
+                .bufferTimeout(importBatchSize, importBatchWindow)
+                .concatMap(this::importBatch)
+                .doOnError(ex -> LOG.warn("importCompositeProducts failed: {}", ex.toString()));
+    }
+
+    private ImportLine parseImportLine(ImportLine line) {
+        try {
+            ProductAggregate aggregate = mapper.readValue(line.json, ProductAggregate.class);
+            if (aggregate.getProductId() < 1) {
+                line.result = ProductImportResult.rejected(line.number, aggregate.getProductId(), "Invalid productId: " + aggregate.getProductId());
+            } else {
+                line.aggregate = aggregate;
+            }
+        } catch (JsonProcessingException ex) {
+            line.result = ProductImportResult.rejected(line.number, null, "Invalid JSON: " + ex.getOriginalMessage());
+        }
+        return line;
+    }
+
+    private Flux<ProductImportResult> importBatch(List<ImportLine> batch) {
+
+        LOG.debug("importCompositeProducts: imports a batch of {} lines, starting at line {}", batch.size(), batch.get(0).number);
+
+        List<Product> products = new ArrayList<>();
+        List<Recommendation> recommendations = new ArrayList<>();
+        List<Review> reviews = new ArrayList<>();
+        for (ImportLine line : batch) {
+            if (line.result == null) {
+                ProductAggregate body = line.aggregate;
+                aggregateCache.invalidate(body.getProductId());
+                products.add(new Product(body.getProductId(), body.getName(), body.getWeight(), null));
+                recommendations.addAll(recommendationsOf(body));
+                reviews.addAll(reviewsOf(body));
+            }
+        }
+
+        if (products.isEmpty()) {
+            return Flux.fromIterable(batch).map(line -> line.result);
+        }
+
+        // The productIds of the events that failed, with the reason
+        return Flux.merge(
+                        integration.createProductBatches(products),
+                        recommendations.isEmpty() ? Flux.<Tuple2<Integer, String>>empty() : integration.createRecommendationBatches(recommendations),
+                        reviews.isEmpty() ? Flux.<Tuple2<Integer, String>>empty() : integration.createReviewBatches(reviews))
+                .collectMap(Tuple2::getT1, Tuple2::getT2, HashMap::new)
+                .flatMapIterable(failures -> batch.stream()
+                        .map(line -> line.result != null ? line.result :
+                                failures.containsKey(line.aggregate.getProductId()) ?
+                                        ProductImportResult.rejected(line.number, line.aggregate.getProductId(), "Failed to publish: " + failures.get(line.aggregate.getProductId())) :
+                                        ProductImportResult.accepted(line.number, line.aggregate.getProductId()))
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * A read of selected fields is answered from a cached or in-flight read of the full aggregate if there is one.
+     * Otherwise it reads only the selected fields and is not cached. The product is always read, it decides if the
+     * aggregate exists.
+     */
+    @Override
+    public Mono<ProductAggregate> getCompositeProduct(int productId, int delay, int faultPercent, List<String> fields) {
+
+        LOG.info("Will get composite product info for product.id={}, fields: {}", productId, fields);
+
+        ProductAggregateFields selectedFields = ProductAggregateFields.parse(fields);
+
+        // Calls that simulate delays or faults bypass the cache, they are expected to hit the core services
+        if (delay != 0 || faultPercent != 0) {
+            return loadCompositeProduct(productId, delay, faultPercent, selectedFields, new AtomicBoolean());
+        }
+
+        ProductAggregate cachedAggregate = aggregateCache.get(productId);
+        if (cachedAggregate != null) {
+            LOG.debug("Found the composite product info for product.id={} in the cache", productId);
+            return Mono.just(selectedFields.project(cachedAggregate));
+        }
+
+        if (!selectedFields.isAll()) {
+            Mono<ProductAggregate> inFlightRead = inFlightReads.get(productId);
+            return inFlightRead != null ?
+                    inFlightRead.map(selectedFields::project) :
+                    loadCompositeProduct(productId, 0, 0, selectedFields, new AtomicBoolean());
+        }
+
+        return inFlightReads.computeIfAbsent(productId, this::loadAndCacheCompositeProduct);
+    }
+
+    /**
+     * mergeSequential() subscribes to all three sources at once but emits the product chunk before any of the
+     * recommendation and review chunks, these are buffered until the product is written. That way the time to
+     * first byte follows the latency of the product service, not the slowest of the three.
+     */
+    @Override
+    public Flux<ProductAggregateChunk> streamCompositeProduct(int productId) {
+
+        LOG.info("Will stream composite product info for product.id={}", productId);
+
+        ProductAggregate cachedAggregate = aggregateCache.get(productId);
+        if (cachedAggregate != null) {
+            LOG.debug("Found the composite product info for product.id={} in the cache", productId);
+            return Flux.fromIterable(toChunks(cachedAggregate));
+        }
+
+        Flux<ProductAggregateChunk> productChunk = integration.getProduct(productId, 0, 0)
+                .map(p -> new ProductAggregateChunk(PRODUCT, p.getProductId(), p.getName(), p.getWeight(), null, null, p.getServiceAddress()))
+                .flux();
+
+        Flux<ProductAggregateChunk> recommendationAndReviewChunks = Flux.merge(
+                integration.getRecommendations(productId)
+                        .map(r -> new ProductAggregateChunk(RECOMMENDATION, productId, null, 0,
+                                new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent()), null, r.getServiceAddress())),
+                integration.getReviews(productId)
+                        .map(r -> new ProductAggregateChunk(REVIEW, productId, null, 0,
+                                null, new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent()), r.getServiceAddress())));
+
+        return Flux.mergeSequential(productChunk, recommendationAndReviewChunks)
+                .doOnError(ex -> LOG.warn("streamCompositeProduct failed: {}", ex.toString()));
+    }
+
+    /**
+     * Each aggregate is read the same way as by getCompositeProduct(), i.e. through the cache, but at most
+     * batchConcurrency products are fetched in parallel. flatMapSequential() keeps the order of the ids while
+     * flatMap() emits each aggregate as soon as it is complete.
+     */
+    @Override
+    public Flux<ProductAggregate> getCompositeProducts(List<Integer> productIds, boolean ordered) {
+
+        if (productIds.size() > batchMaxSize) {
+            throw new InvalidInputException("Too many productIds: " + productIds.size() + ", the limit is " + batchMaxSize);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        LOG.info("Will get composite product info for {} products, ordered: {}", productIds.size(), ordered);
+
+        Function<Integer, Mono<ProductAggregate>> getAggregate = productId ->
+                Mono.defer(() -> getCompositeProduct(productId, 0, 0, null))
+                        .onErrorResume(NotFoundException.class, ex -> {
+                            LOG.debug("getCompositeProducts: skips productId: {}, {}", productId, ex.getMessage());
+                            return Mono.empty();
+                        });
+
+        Flux<Integer> distinctIds = Flux.fromIterable(productIds).distinct();
+
+        return ordered ?
+                distinctIds.flatMapSequential(getAggregate, batchConcurrency) :
+                distinctIds.flatMap(getAggregate, batchConcurrency);
+    }
+
+    /**
+     * Concurrent reads of the same product share one load, i.e. one call to each core service. The load is cached
+     * until it completes so that all subscribers get the same outcome, also when the calls to the product service
+     * are retried, time out or are short-circuited by the circuit breaker. Once it completes, it is removed so that
+     * the next read either hits the aggregate cache or starts a new load.
+     *
+     * An aggregate that lacks the recommendations or reviews since their call failed is returned but not cached.
+     */
+    private Mono<ProductAggregate> loadAndCacheCompositeProduct(int productId) {
+
+        long loadStamp = aggregateCache.startLoad();
+        AtomicBoolean partial = new AtomicBoolean();
+        // Only this load is removed, a newer one for the same product may already have taken its place
+        AtomicReference<Mono<ProductAggregate>> load = new AtomicReference<>();
+        load.set(loadCompositeProduct(productId, 0, 0, ProductAggregateFields.ALL, partial)
+                .doOnNext(aggregate -> {
+                    if (!partial.get()) {
+                        aggregateCache.put(productId, aggregate, loadStamp);
+                    }
+                })
+                .doFinally(signalType -> inFlightReads.remove(productId, load.get()))
+                .cache());
+        return load.get();
+    }
+
     /**
      * To be able to call the three APIs in parallel, the service implementation uses the static zip() method on
      * the Mono class. The zip method is capable of handling a number of parallel reactive requests and zipping
      * them together once they all are complete.
+     *
+     * Without a simulated delay or fault, the three calls go through the micro-batch loaders, i.e. concurrent reads
+     * of different products share one call per dependency. The multi-id endpoints do not simulate delays or faults.
+     *
+     * Recommendations and reviews that are not selected are not read, the ones with only some fields selected are
+     * read with only those fields.
+     *
+     * If the recommendations or reviews can not be read, the aggregate is returned without them and partial is set.
      */
-    @Override
-    public Mono<ProductAggregate> getCompositeProduct(int productId, int delay, int faultPercent) {
+    private Mono<ProductAggregate> loadCompositeProduct(int productId, int delay, int faultPercent, ProductAggregateFields fields,
+                                                        AtomicBoolean partial) {
+
+        boolean batched = delay == 0 && faultPercent == 0;
+
+        Mono<Product> product = batched
+                ? productLoader.load(productId).switchIfEmpty(Mono.error(() -> new NotFoundException("No product found for id: " + productId)))
+                : integration.getProduct(productId, delay, faultPercent);
+
+        Mono<List<Recommendation>> recommendations;
+        if (!fields.includesRecommendations()) {
+            recommendations = Mono.just(List.of());
+        } else if (!fields.includesAllRecommendationFields()) {
+            recommendations = integration.getRecommendations(productId, fields.getRecommendationFields()).collectList();
+        } else {
+            recommendations = emptyOnError("recommendations", productId, partial, batched
+                    ? recommendationLoader.load(productId).defaultIfEmpty(List.of())
+                    : integration.loadRecommendations(productId).collectList());
+        }
+
+        Mono<List<Review>> reviews;
+        if (!fields.includesReviews()) {
+            reviews = Mono.just(List.of());
+        } else if (!fields.includesAllReviewFields()) {
+            reviews = integration.getReviews(productId, fields.getReviewFields()).collectList();
+        } else {
+            reviews = emptyOnError("reviews", productId, partial, batched
+                    ? reviewLoader.load(productId).defaultIfEmpty(List.of())
+                    : integration.loadReviews(productId).collectList());
+        }
 
-        LOG.info("Will get composite product info for product.id={}", productId);
         return Mono.zip(
-                values -> createProductAggregate((Product) values[0], (List<Recommendation>) values[1], (List<Review>) values[2], serviceUtil.getServiceAddress()),
-                integration.getProduct(productId, delay, faultPercent),
-                integration.getRecommendations(productId).collectList(),
-                integration.getReviews(productId).collectList())
+                values -> fields.project(createProductAggregate((Product) values[0], (List<Recommendation>) values[1], (List<Review>) values[2], serviceUtil.getServiceAddress())),
+                product,
+                recommendations,
+                reviews)
                 .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
                 .log(LOG.getName(), FINE);
     }
 
+    private static <T> Mono<List<T>> emptyOnError(String what, int productId, AtomicBoolean partial, Mono<List<T>> list) {
+        return list.onErrorResume(ex -> {
+            LOG.warn("Returns the composite product for productId: {} without its {}: {}", productId, what, ex.toString());
+            partial.set(true);
+            return Mono.just(List.of());
+        });
+    }
+
     @Override
-    public Mono<Void> deleteCompositeProduct(int productId) {
+    public Mono<Void> deleteCompositeProduct(int productId, String idempotencyKey) {
+        return idempotencyStore.execute("delete", idempotencyKey,
+                () -> IdempotencyStore.hash(String.valueOf(productId).getBytes(StandardCharsets.UTF_8)), () -> deleteCompositeProduct(productId));
+    }
+
+    private Mono<Void> deleteCompositeProduct(int productId) {
 
         try {
 
             LOG.debug("deleteCompositeProduct: Deletes a product aggregate for productId: {}", productId);
 
+            aggregateCache.invalidate(productId);
+
             return Mono.zip(
                     r -> "",
                     integration.deleteProduct(productId),
@@ -107,6 +431,69 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
         }
     }
 
+    /**
+     * Publishes one DELETE_LIST or DELETE_RANGE event per core service and partition instead of one DELETE event per
+     * product and service. A range is not expanded to ids anywhere, the core services delete it with a single range query.
+     * when() is used rather than zip() since zip() cancels the other deletes as soon as one completes empty.
+     */
+    @Override
+    public Mono<Void> deleteCompositeProducts(List<Integer> productIds, Integer fromProductId, Integer toProductId) {
+
+        boolean byRange = fromProductId != null || toProductId != null;
+        if (byRange == (productIds != null)) {
+            throw new InvalidInputException("Either ids or fromId and toId must be given");
+        }
+
+        if (byRange) {
+            if (fromProductId == null || toProductId == null || fromProductId < 1 || toProductId < fromProductId) {
+                throw new InvalidInputException("Invalid productId range: " + fromProductId + " to " + toProductId);
+            }
+
+            LOG.debug("deleteCompositeProducts: Deletes the product aggregates for productId {} to {}", fromProductId, toProductId);
+
+            aggregateCache.invalidateRange(fromProductId, toProductId);
+
+            return Mono.when(
+                    integration.deleteProductRange(fromProductId, toProductId),
+                    integration.deleteRecommendationsForProductRange(fromProductId, toProductId),
+                    integration.deleteReviewsForProductRange(fromProductId, toProductId))
+                    .doOnError(ex -> LOG.warn("deleteCompositeProducts failed: {}", ex.toString()));
+        }
+
+        if (productIds.isEmpty() || productIds.size() > bulkDeleteMaxIds) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", the limit is " + bulkDeleteMaxIds);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+        List<Integer> distinctIds = productIds.stream().distinct().collect(Collectors.toList());
+
+        LOG.debug("deleteCompositeProducts: Deletes the product aggregates for {} productIds", distinctIds.size());
+
+        distinctIds.forEach(aggregateCache::invalidate);
+
+        return Mono.when(
+                integration.deleteProducts(distinctIds),
+                integration.deleteRecommendationsForProducts(distinctIds),
+                integration.deleteReviewsForProducts(distinctIds))
+                .doOnError(ex -> LOG.warn("deleteCompositeProducts failed: {}", ex.toString()));
+    }
+
+    private List<ProductAggregateChunk> toChunks(ProductAggregate aggregate) {
+
+        int productId = aggregate.getProductId();
+        ServiceAddresses addresses = aggregate.getServiceAddresses();
+        List<ProductAggregateChunk> chunks = new ArrayList<>();
+
+        chunks.add(new ProductAggregateChunk(PRODUCT, productId, aggregate.getName(), aggregate.getWeight(), null, null, addresses.getPro()));
+        aggregate.getRecommendations().forEach(r -> chunks.add(new ProductAggregateChunk(RECOMMENDATION, productId, null, 0, r, null, addresses.getRec())));
+        aggregate.getReviews().forEach(r -> chunks.add(new ProductAggregateChunk(REVIEW, productId, null, 0, null, r, addresses.getRev())));
+
+        return chunks;
+    }
+
     private ProductAggregate createProductAggregate(
             Product product, List<Recommendation> recommendations, List<Review> reviews, String serviceAddress) {
 
@@ -133,7 +520,19 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
         String recommendationAddress = (recommendations != null && recommendations.size() > 0) ? recommendations.get(0).getServiceAddress() : "";
         ServiceAddresses serviceAddresses = new ServiceAddresses(serviceAddress, productAddress, reviewAddress, recommendationAddress);
 
-        return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses);
+        return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses, StaleProduct.isStale(product));
     }
 
+    private static class ImportLine {
+
+        private final long number;
+        private final String json;
+        private ProductAggregate aggregate;
+        private ProductImportResult result;
+
+        ImportLine(long number, String json) {
+            this.number = number;
+            this.json = json;
+        }
+    }
 }
@@ -0,0 +1,225 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mkurt.api.core.product.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Objects;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Keeps the last product info successfully read from the product service, used by the circuit breaker fallback.
+ * The entries are kept in a size-bounded in-memory cache. If a file is configured, they are also written to a
+ * memory-mapped file of fixed-size slots, one slot per productId modulo the number of slots, so that the
+ * fallback cache survives a restart. A slot is overwritten by the last product that maps to it.
+ */
+@Component
+public class ProductFallbackStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductFallbackStore.class);
+
+    // Slot layout: productId (int), storedAt in millis (long), length (int), followed by the product as JSON
+    private static final int SLOT_HEADER_SIZE = 16;
+    private static final int EMPTY_SLOT = 0;
+
+    private final ObjectMapper mapper;
+    private final Cache<Integer, Product> products;
+
+    private final MappedByteBuffer file;
+    private final int fileSlots;
+    private final int fileSlotSize;
+
+    @Autowired
+    public ProductFallbackStore(@Value("${app.productFallbackCache.maxSize:10000}") long maxSize,
+                                @Value("${app.productFallbackCache.file:}") String fileName,
+                                @Value("${app.productFallbackCache.fileSlots:10000}") int fileSlots,
+                                @Value("${app.productFallbackCache.fileSlotSize:512}") int fileSlotSize,
+                                ObjectMapper mapper) {
+
+        LOG.info("Creates a product fallback store, maxSize = {}, file = '{}', fileSlots = {}, fileSlotSize = {}",
+                maxSize, fileName, fileSlots, fileSlotSize);
+
+        this.mapper = mapper;
+        this.products = Caffeine.newBuilder().maximumSize(maxSize).build();
+        this.fileSlots = fileSlots;
+        this.fileSlotSize = fileSlotSize;
+        this.file = fileName.isEmpty() ? null : mapFile(Paths.get(fileName));
+
+        if (file != null) {
+            loadFromFile();
+        }
+    }
+
+    /**
+     * Returns a copy of the last known product marked as stale, or null if the product is unknown.
+     */
+    public Product get(int productId) {
+        Product product = products.getIfPresent(productId);
+        if (product == null) {
+            return null;
+        }
+
+        return new StaleProduct(product);
+    }
+
+    public void put(Product product) {
+        if (product == null || StaleProduct.isStale(product)) {
+            return;
+        }
+
+        // Called for every successful read, skip the copy and file write if nothing has changed
+        Product current = products.getIfPresent(product.getProductId());
+        if (current != null && sameContent(current, product)) {
+            return;
+        }
+
+        Product copy = new Product(product.getProductId(), product.getName(), product.getWeight(), product.getServiceAddress());
+        products.put(copy.getProductId(), copy);
+
+        if (file != null) {
+            writeToFile(copy);
+        }
+    }
+
+    public void remove(int productId) {
+        products.invalidate(productId);
+
+        if (file != null) {
+            clearSlot(productId);
+        }
+    }
+
+    public void removeAll(Collection<Integer> productIds) {
+        productIds.forEach(this::remove);
+    }
+
+    /**
+     * Removes all products from fromProductId to toProductId, both included. Only the products in the store are
+     * looked at, i.e. a large range does not mean a large number of lookups.
+     */
+    public void removeRange(int fromProductId, int toProductId) {
+        products.asMap().keySet().removeIf(productId -> productId >= fromProductId && productId <= toProductId);
+
+        if (file != null) {
+            clearSlots(fromProductId, toProductId);
+        }
+    }
+
+    private MappedByteBuffer mapFile(Path path) {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+                // The mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) fileSlots * fileSlotSize);
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Failed to map the product fallback file {}, will only keep the fallback cache in memory: {}", path, ex.toString());
+            return null;
+        }
+    }
+
+    private void loadFromFile() {
+        int loaded = 0;
+        for (int slot = 0; slot < fileSlots; slot++) {
+            Product product = readSlot(slot);
+            if (product != null) {
+                products.put(product.getProductId(), product);
+                loaded++;
+            }
+        }
+        LOG.info("Loaded {} products from the product fallback file", loaded);
+    }
+
+    private synchronized Product readSlot(int slot) {
+        int offset = slot * fileSlotSize;
+        int productId = file.getInt(offset);
+        int length = file.getInt(offset + 12);
+        if (productId == EMPTY_SLOT || length <= 0 || length > fileSlotSize - SLOT_HEADER_SIZE) {
+            return null;
+        }
+
+        byte[] json = new byte[length];
+        ByteBuffer view = file.duplicate();
+        view.position(offset + SLOT_HEADER_SIZE);
+        view.get(json);
+
+        try {
+            Product product = mapper.readValue(json, Product.class);
+            return product.getProductId() == productId ? product : null;
+        } catch (IOException ex) {
+            LOG.warn("Skips a corrupt slot {} in the product fallback file: {}", slot, ex.toString());
+            return null;
+        }
+    }
+
+    private synchronized void writeToFile(Product product) {
+        byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(product);
+        } catch (IOException ex) {
+            LOG.warn("Failed to serialize productId {} for the product fallback file: {}", product.getProductId(), ex.toString());
+            return;
+        }
+
+        if (json.length > fileSlotSize - SLOT_HEADER_SIZE) {
+            LOG.debug("ProductId {} does not fit into a fallback file slot, keeps it in memory only", product.getProductId());
+            return;
+        }
+
+        // Clear the productId first and set it last, a half-written slot is then skipped when loaded
+        int offset = slotOffset(product.getProductId());
+        file.putInt(offset, EMPTY_SLOT);
+        ByteBuffer view = file.duplicate();
+        view.position(offset + SLOT_HEADER_SIZE);
+        view.put(json);
+        file.putLong(offset + 4, System.currentTimeMillis());
+        file.putInt(offset + 12, json.length);
+        file.putInt(offset, product.getProductId());
+    }
+
+    private synchronized void clearSlot(int productId) {
+        int offset = slotOffset(productId);
+        if (file.getInt(offset) == productId) {
+            file.putInt(offset, EMPTY_SLOT);
+        }
+    }
+
+    private synchronized void clearSlots(int fromProductId, int toProductId) {
+        for (int slot = 0; slot < fileSlots; slot++) {
+            int offset = slot * fileSlotSize;
+            int productId = file.getInt(offset);
+            if (productId != EMPTY_SLOT && productId >= fromProductId && productId <= toProductId) {
+                file.putInt(offset, EMPTY_SLOT);
+            }
+        }
+    }
+
+    private int slotOffset(int productId) {
+        return Math.floorMod(productId, fileSlots) * fileSlotSize;
+    }
+
+    private boolean sameContent(Product a, Product b) {
+        return a.getWeight() == b.getWeight()
+                && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getServiceAddress(), b.getServiceAddress());
+    }
+}
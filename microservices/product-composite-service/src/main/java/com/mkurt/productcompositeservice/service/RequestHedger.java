@@ -0,0 +1,174 @@
+package com.mkurt.productcompositeservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hedges the calls to one dependency: if a call has not signalled anything within the observed latency percentile
+ * of that dependency, a second identical call is made and the first one to answer wins, the other one is cancelled.
+ * A failed call does not win over the other one while it is still running, the hedge fails once both have failed.
+ * The second call goes through the load-balanced WebClient as well, i.e. the round-robin load balancer hands it
+ * to the next instance of the dependency.
+ *
+ * To limit the extra load, every call adds a fraction of a token to a budget and every hedged call takes a full
+ * token. With a budget ratio of 0.05, at most about 5% extra requests are made over time.
+ */
+public class RequestHedger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+    private static final long MILLI_TOKENS_PER_HEDGE = 1000;
+
+    private final String dependency;
+    private final boolean enabled;
+    private final double percentile;
+    private final int minSamples;
+    private final long minDelayNanos;
+    private final long milliTokensPerCall;
+    private final long maxMilliTokens;
+
+    // Ring buffer with the latencies of the last calls, the percentile is recalculated every recalculateEvery samples
+    private final long[] latencies;
+    private final int recalculateEvery;
+    private final AtomicLong samples = new AtomicLong();
+    private volatile long hedgeDelayNanos = -1;
+
+    private final AtomicLong milliTokens = new AtomicLong();
+
+    private final Counter hedgedCalls;
+    private final Counter budgetExhausted;
+
+    public RequestHedger(String dependency, boolean enabled, double percentile, int windowSize, int minSamples,
+                         Duration minDelay, double budgetRatio, MeterRegistry meterRegistry) {
+
+        LOG.info("Creates a request hedger for {}, enabled = {}, percentile = {}, windowSize = {}, minSamples = {}, minDelay = {}, budgetRatio = {}",
+                dependency, enabled, percentile, windowSize, minSamples, minDelay, budgetRatio);
+
+        this.dependency = dependency;
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        this.minDelayNanos = minDelay.toNanos();
+        this.milliTokensPerCall = Math.round(budgetRatio * MILLI_TOKENS_PER_HEDGE);
+        this.maxMilliTokens = 10 * MILLI_TOKENS_PER_HEDGE;
+        this.latencies = new long[windowSize];
+        this.recalculateEvery = Math.max(1, windowSize / 10);
+
+        this.hedgedCalls = Counter.builder("hedging.calls")
+                .tag("dependency", dependency)
+                .description("The number of hedged calls made")
+                .register(meterRegistry);
+        this.budgetExhausted = Counter.builder("hedging.budget.exhausted")
+                .tag("dependency", dependency)
+                .description("The number of hedged calls skipped since the hedging budget was used up")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Subscribes to a call from the supplier and, if it is slow, to a second one from the supplier.
+     * The supplier must return a new, cold call each time it is invoked.
+     */
+    public <T> Flux<T> hedge(Supplier<Flux<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+
+        return Flux.defer(() -> {
+            deposit();
+
+            long delayNanos = hedgeDelayNanos;
+            if (delayNanos < 0) {
+                // Not enough samples yet to know what a slow call is
+                return timed(call.get(), true);
+            }
+
+            // Once the hedged call is made, a failing call shall not win over the other one while it is still
+            // running, the hedge fails only when both calls have failed
+            AtomicBoolean hedgeMade = new AtomicBoolean();
+            AtomicInteger failures = new AtomicInteger();
+
+            Flux<T> primaryCall = timed(call.get(), true)
+                    .onErrorResume(error -> hedgeMade.get() && failures.incrementAndGet() < 2 ? Flux.never() : Flux.error(error));
+
+            Flux<T> hedgedCall = Mono.delay(Duration.ofNanos(delayNanos))
+                    .flatMapMany(tick -> {
+                        if (!withdraw()) {
+                            budgetExhausted.increment();
+                            return Flux.never();
+                        }
+
+                        LOG.debug("No answer from {} within {} ms, makes a hedged call", dependency, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                        hedgedCalls.increment();
+                        hedgeMade.set(true);
+
+                        return timed(call.get(), false)
+                                .onErrorResume(error -> failures.incrementAndGet() < 2 ? Flux.never() : Flux.error(error));
+                    });
+
+            return Flux.firstWithSignal(primaryCall, hedgedCall);
+        });
+    }
+
+    /**
+     * Records the latency of a call whatever its outcome, a failed call is as slow as it took to fail. A cancelled
+     * primary call, e.g. one that lost to its hedged call, took at least as long as it ran, so its elapsed time is
+     * recorded as well. A cancelled hedged call is not recorded, it only ran for part of the latency of the call.
+     */
+    private <T> Flux<T> timed(Flux<T> call, boolean recordCancel) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return call.doFinally(signalType -> {
+                if (signalType != SignalType.CANCEL || recordCancel) {
+                    record(System.nanoTime() - start);
+                }
+            });
+        });
+    }
+
+    private void record(long latencyNanos) {
+        long sample = samples.getAndIncrement();
+        latencies[(int) (sample % latencies.length)] = latencyNanos;
+
+        if (sample + 1 >= minSamples && (sample + 1) % recalculateEvery == 0) {
+            recalculate((int) Math.min(sample + 1, latencies.length));
+        }
+    }
+
+    private void recalculate(int count) {
+        // Concurrent writes can race with the copy, that only makes a sample slightly off
+        long[] window = Arrays.copyOf(latencies, count);
+        Arrays.sort(window);
+        int index = Math.max(0, Math.min(count - 1, (int) Math.ceil(percentile * count) - 1));
+        long value = window[index];
+        hedgeDelayNanos = Math.max(minDelayNanos, value);
+    }
+
+    private void deposit() {
+        milliTokens.getAndUpdate(tokens -> Math.min(maxMilliTokens, tokens + milliTokensPerCall));
+    }
+
+    private boolean withdraw() {
+        while (true) {
+            long tokens = milliTokens.get();
+            if (tokens < MILLI_TOKENS_PER_HEDGE) {
+                return false;
+            }
+            if (milliTokens.compareAndSet(tokens, tokens - MILLI_TOKENS_PER_HEDGE)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.mkurt.productcompositeservice.service;
+
+import com.mkurt.api.core.product.Product;
+
+/**
+ * A product served from the fallback store instead of the product service, i.e. it might be outdated. Staleness
+ * is a concern of the composite service only, it is reported on the aggregate, not on the product itself.
+ */
+public class StaleProduct extends Product {
+
+    public StaleProduct(Product product) {
+        super(product.getProductId(), product.getName(), product.getWeight(), product.getServiceAddress());
+    }
+
+    public static boolean isStale(Product product) {
+        return product instanceof StaleProduct;
+    }
+}
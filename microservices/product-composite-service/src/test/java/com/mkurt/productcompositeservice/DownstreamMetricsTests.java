@@ -0,0 +1,84 @@
+package com.mkurt.productcompositeservice;
+
+import com.mkurt.api.exception.NotFoundException;
+import com.mkurt.productcompositeservice.service.DownstreamMetrics;
+import io.github.resilience4j.timelimiter.TimeLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DownstreamMetricsTests {
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    DownstreamMetrics metrics = new DownstreamMetrics(registry);
+
+    @Test
+    void retriedCallIsTimedPerAttempt() {
+        AtomicInteger calls = new AtomicInteger();
+        Mono<String> call = Mono.defer(() -> calls.incrementAndGet() == 1
+                ? Mono.error(new NotFoundException("not found"))
+                : Mono.just("found"));
+
+        StepVerifier.create(metrics.timed("product", new AtomicInteger(), null, call).retry(1))
+                .expectNext("found")
+                .verifyComplete();
+
+        assertEquals(1, count("not_found", "1"));
+        assertEquals(1, count("success", "2"));
+    }
+
+    @Test
+    void attemptIsCountedOnSubscribe() {
+        AtomicInteger attempts = new AtomicInteger();
+        Mono<String> call = metrics.timed("product", attempts, null, Mono.just("found"));
+
+        assertEquals(0, attempts.get());
+
+        call.block();
+        call.block();
+
+        assertEquals(2, attempts.get());
+        assertEquals(1, count("success", "1"));
+        assertEquals(1, count("success", "2"));
+    }
+
+    @Test
+    void cancelledCallIsNotTimedAsTimeout() {
+        TimeLimiter timeLimiter = TimeLimiter.of(Duration.ofSeconds(10));
+
+        StepVerifier.create(metrics.timed("product", new AtomicInteger(), timeLimiter, Mono.never()))
+                .thenCancel()
+                .verify();
+
+        assertEquals(1, count("cancelled", "1"));
+    }
+
+    @Test
+    void timedOutCallIsTimedAsTimeout() {
+        TimeLimiter timeLimiter = TimeLimiter.of(Duration.ofSeconds(2));
+
+        // On virtual time the timeout fires on the test thread, i.e. the attempt is timed before verify() returns
+        StepVerifier.withVirtualTime(() -> metrics.timed("product", new AtomicInteger(), timeLimiter, Mono.never()))
+                .thenAwait(Duration.ofSeconds(2))
+                .expectError(TimeoutException.class)
+                .verify();
+
+        assertEquals(1, count("timeout", "1"));
+    }
+
+    private long count(String outcome, String attempt) {
+        return registry.get("downstream.requests")
+                .tag("dependency", "product")
+                .tag("outcome", outcome)
+                .tag("attempt", attempt)
+                .timer()
+                .count();
+    }
+}
@@ -0,0 +1,222 @@
+package com.mkurt.productcompositeservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mkurt.api.core.product.Product;
+import com.mkurt.api.event.Event;
+import com.mkurt.api.exception.EventPublishingException;
+import com.mkurt.productcompositeservice.service.EventOutbox;
+import com.mkurt.productcompositeservice.service.EventPublisher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static com.mkurt.api.event.Event.Type.DELETE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EventOutboxTests {
+
+    ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void relaysAppendedEventsInOrder() throws Exception {
+        List<String> published = new CopyOnWriteArrayList<>();
+        EventOutbox outbox = createOutbox(recordingPublisher(published));
+
+        try {
+            outbox.append("products-out-0", new Event(CREATE, 1, new Product(1, "name", 1, null))).block();
+            outbox.append("products-out-0", new Event(DELETE, 1, null)).block();
+
+            awaitSize(published, 2);
+            assertEquals("products-out-0:1:CREATE", published.get(0));
+            assertEquals("products-out-0:1:DELETE", published.get(1));
+        } finally {
+            outbox.shutdown();
+        }
+    }
+
+    @Test
+    void keepsEventsOverRestartUntilPublished() throws Exception {
+        EventPublisher failingPublisher = mock(EventPublisher.class);
+        when(failingPublisher.publishSerialized(anyString(), any(), any()))
+                .thenReturn(Mono.error(new EventPublishingException("Broker is down")));
+
+        EventOutbox outbox = createOutbox(failingPublisher);
+        for (int productId = 1; productId <= 3; productId++) {
+            outbox.append("products-out-0", new Event(DELETE, productId, null)).block();
+        }
+        Thread.sleep(100);
+        outbox.shutdown();
+
+        List<String> published = new CopyOnWriteArrayList<>();
+        EventOutbox restartedOutbox = createOutbox(recordingPublisher(published));
+        try {
+            awaitSize(published, 3);
+            assertEquals("products-out-0:1:DELETE", published.get(0));
+            assertEquals("products-out-0:3:DELETE", published.get(2));
+
+            // New events are appended after the recovered ones
+            restartedOutbox.append("products-out-0", new Event(DELETE, 4, null)).block();
+            awaitSize(published, 4);
+            assertEquals("products-out-0:4:DELETE", published.get(3));
+        } finally {
+            restartedOutbox.shutdown();
+        }
+    }
+
+    @Test
+    void skipsOnlyACorruptRecord() throws Exception {
+        EventPublisher failingPublisher = mock(EventPublisher.class);
+        when(failingPublisher.publishSerialized(anyString(), any(), any()))
+                .thenReturn(Mono.error(new EventPublishingException("Broker is down")));
+
+        EventOutbox outbox = createOutbox(failingPublisher);
+        for (int productId = 1; productId <= 3; productId++) {
+            outbox.append("products-out-0", new Event(DELETE, productId, null)).block();
+        }
+        outbox.shutdown();
+
+        // Flip the last byte of the body of the second record, its CRC no longer matches
+        try (FileChannel channel = FileChannel.open(directory.resolve(String.format("segment-%020d.log", 0)), READ, WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, 0);
+            int secondRecord = 8 + header.getInt(0);
+            header.clear();
+            channel.read(header, secondRecord);
+            int lastBodyByte = secondRecord + 8 + header.getInt(0) - 1;
+            ByteBuffer body = ByteBuffer.allocate(1);
+            channel.read(body, lastBodyByte);
+            body.put(0, (byte) ~body.get(0));
+            body.rewind();
+            channel.write(body, lastBodyByte);
+        }
+
+        List<String> published = new CopyOnWriteArrayList<>();
+        EventOutbox restartedOutbox = createOutbox(recordingPublisher(published));
+        try {
+            awaitSize(published, 2);
+            assertEquals(List.of("products-out-0:1:DELETE", "products-out-0:3:DELETE"), published);
+        } finally {
+            restartedOutbox.shutdown();
+        }
+    }
+
+    @Test
+    void movesAnEventThatKeepsFailingToTheDeadLetterFile() throws Exception {
+        List<String> published = new CopyOnWriteArrayList<>();
+        EventPublisher recordingPublisher = recordingPublisher(published);
+        EventPublisher publisher = mock(EventPublisher.class);
+        when(publisher.publishSerialized(anyString(), any(), any())).thenAnswer(invocation ->
+                invocation.getArgument(1).equals(2) ?
+                        Mono.error(new EventPublishingException("Rejected by the broker")) :
+                        recordingPublisher.publishSerialized(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+
+        // The batch is relayed as a whole twice, then event by event
+        EventOutbox outbox = new EventOutbox(true, directory.toString(), 1, 4, 10, 10, 1000, 2, 10, 10, mapper, publisher);
+        try {
+            for (int productId = 1; productId <= 3; productId++) {
+                outbox.append("products-out-0", new Event(DELETE, productId, null)).block();
+            }
+
+            Path deadLetterFile = directory.resolve("dead-letter.log");
+            await(() -> deadLetterFile.toFile().length() > 0 && published.contains("products-out-0:3:DELETE"),
+                    "event 2 in the dead-letter file and event 3 published");
+
+            // Events 1 and 3 are published at least once, i.e. maybe once per attempt
+            assertTrue(published.contains("products-out-0:1:DELETE"));
+            assertFalse(published.contains("products-out-0:2:DELETE"));
+
+            List<String> deadLetters = Files.readAllLines(deadLetterFile);
+            assertEquals(1, deadLetters.size());
+            assertTrue(deadLetters.get(0).startsWith("products-out-0\t2\t{"), deadLetters.get(0));
+        } finally {
+            outbox.shutdown();
+        }
+    }
+
+    @Test
+    void appendFailsWhenAllSegmentsAreFull() throws Exception {
+        EventPublisher failingPublisher = mock(EventPublisher.class);
+        when(failingPublisher.publishSerialized(anyString(), any(), any()))
+                .thenReturn(Mono.error(new EventPublishingException("Broker is down")));
+
+        // One segment of 1 MB that can not be relayed
+        EventOutbox outbox = new EventOutbox(true, directory.toString(), 1, 1, 10, 10, 1000, 100, 10, 100, mapper, failingPublisher);
+        try {
+            Product product = new Product(1, "x".repeat(100000), 1, null);
+            assertThrows(EventPublishingException.class, () -> {
+                for (int i = 0; i < 20; i++) {
+                    outbox.append("products-out-0", new Event(CREATE, 1, product)).block();
+                }
+            });
+        } finally {
+            outbox.shutdown();
+        }
+    }
+
+    @Test
+    void appendsOffTheCallerThreadAndFailsAfterShutdown() throws Exception {
+        EventOutbox outbox = createOutbox(recordingPublisher(new CopyOnWriteArrayList<>()));
+
+        List<String> appendThreads = new CopyOnWriteArrayList<>();
+        outbox.append("products-out-0", new Event(DELETE, 1, null))
+                .doOnSuccess(done -> appendThreads.add(Thread.currentThread().getName()))
+                .block();
+        assertTrue(appendThreads.get(0).startsWith("outbox-append"), "Appended on " + appendThreads);
+
+        outbox.shutdown();
+        assertThrows(EventPublishingException.class, () -> outbox.append("products-out-0", new Event(DELETE, 1, null)).block());
+    }
+
+    private EventOutbox createOutbox(EventPublisher publisher) throws IOException {
+        return new EventOutbox(true, directory.toString(), 1, 4, 10, 10, 1000, 1000, 10, 10, mapper, publisher);
+    }
+
+    private EventPublisher recordingPublisher(List<String> published) {
+        EventPublisher publisher = mock(EventPublisher.class);
+        when(publisher.publishSerialized(anyString(), any(), any())).thenAnswer(invocation -> Mono.fromRunnable(() -> {
+            try {
+                Map<?, ?> event = mapper.readValue(new String((byte[]) invocation.getArgument(2), UTF_8), Map.class);
+                published.add(invocation.getArgument(0) + ":" + invocation.getArgument(1) + ":" + event.get("eventType"));
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }));
+        return publisher;
+    }
+
+    private void awaitSize(List<String> published, int size) throws InterruptedException {
+        await(() -> published.size() >= size, size + " published events, got " + published);
+    }
+
+    private void await(BooleanSupplier condition, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), "Expected " + expected);
+    }
+}
@@ -0,0 +1,45 @@
+package com.mkurt.productcompositeservice;
+
+import com.mkurt.productcompositeservice.service.EventPartitioner;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.binder.ProducerProperties;
+import org.springframework.cloud.stream.config.BindingProperties;
+import org.springframework.cloud.stream.config.BindingServiceProperties;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EventPartitionerTests {
+
+    @Test
+    void listIsSplitByPartition() {
+        EventPartitioner partitioner = createPartitioner(2);
+
+        assertEquals(List.of(List.of(2, 4), List.of(1, 3, 5)),
+                partitioner.splitByPartition("products-out-0", List.of(1, 2, 3, 4, 5), Function.identity()));
+        assertEquals(List.of(List.of(1, 2, 3)),
+                partitioner.splitByPartition("reviews-out-0", List.of(1, 2, 3), Function.identity()));
+    }
+
+    @Test
+    void rangeHasOneKeyPerPartition() {
+        EventPartitioner partitioner = createPartitioner(2);
+
+        assertEquals(List.of(10, 11), partitioner.keysPerPartition("products-out-0", 10, 20));
+        assertEquals(List.of(10), partitioner.keysPerPartition("products-out-0", 10, 10));
+        assertEquals(List.of(10), partitioner.keysPerPartition("reviews-out-0", 10, 20));
+    }
+
+    private EventPartitioner createPartitioner(int productPartitionCount) {
+        ProducerProperties producer = new ProducerProperties();
+        producer.setPartitionCount(productPartitionCount);
+        BindingProperties binding = new BindingProperties();
+        binding.setProducer(producer);
+
+        BindingServiceProperties properties = new BindingServiceProperties();
+        properties.getBindings().put("products-out-0", binding);
+        return new EventPartitioner(properties);
+    }
+}
@@ -0,0 +1,50 @@
+package com.mkurt.productcompositeservice;
+
+import com.mkurt.api.core.product.Product;
+import com.mkurt.api.event.Event;
+import com.mkurt.productcompositeservice.service.EventPublisher;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EventPublisherTests {
+
+    @Test
+    void publishWaitsForQueueCapacity() {
+        List<Integer> sent = new CopyOnWriteArrayList<>();
+        StreamBridge streamBridge = mock(StreamBridge.class);
+        when(streamBridge.send(anyString(), any())).thenAnswer(invocation -> {
+            Message<Event> message = invocation.getArgument(1);
+            Thread.sleep(5);
+            sent.add((Integer) message.getPayload().getKey());
+            return true;
+        });
+
+        // Room for 2 events in the queue, the other events wait for a place instead of failing
+        EventPublisher publisher = new EventPublisher(streamBridge, 2, 1, false, 5000);
+        try {
+            Flux.range(1, 20)
+                    .flatMap(productId -> publisher.publish("products-out-0", new Event(CREATE, productId, new Product(productId, "name", 1, null))))
+                    .then()
+                    .block(Duration.ofSeconds(10));
+
+            assertEquals(IntStream.rangeClosed(1, 20).boxed().collect(Collectors.toList()), sent);
+        } finally {
+            publisher.shutdown();
+        }
+    }
+}
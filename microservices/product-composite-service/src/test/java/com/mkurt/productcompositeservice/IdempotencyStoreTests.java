@@ -0,0 +1,95 @@
+package com.mkurt.productcompositeservice;
+
+import com.mkurt.api.exception.InvalidInputException;
+import com.mkurt.productcompositeservice.service.IdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IdempotencyStoreTests {
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    IdempotencyStore store = new IdempotencyStore(100, 60, registry);
+
+    @Test
+    void repeatedKeyIsNotWrittenAgain() {
+        AtomicInteger writes = new AtomicInteger();
+
+        store.execute("create", "key-1", () -> "hash-1", () -> Mono.fromRunnable(writes::incrementAndGet)).block();
+        store.execute("create", "key-1", () -> "hash-1", () -> Mono.fromRunnable(writes::incrementAndGet)).block();
+        assertEquals(1, writes.get());
+        assertEquals(1.0, registry.get("idempotency.replays").counter().count());
+
+        // Another operation or key is a new write
+        store.execute("delete", "key-1", () -> "hash-1", () -> Mono.fromRunnable(writes::incrementAndGet)).block();
+        store.execute("create", "key-2", () -> "hash-1", () -> Mono.fromRunnable(writes::incrementAndGet)).block();
+        assertEquals(3, writes.get());
+    }
+
+    @Test
+    void keyReusedWithAnotherRequestIsRejected() {
+        AtomicInteger writes = new AtomicInteger();
+
+        store.execute("create", "key-1", () -> "hash-1", () -> Mono.fromRunnable(writes::incrementAndGet)).block();
+        assertThrows(InvalidInputException.class,
+                () -> store.execute("create", "key-1", () -> "hash-2", () -> Mono.fromRunnable(writes::incrementAndGet)).block());
+        assertEquals(1, writes.get());
+    }
+
+    @Test
+    void writesWithoutKeyAreAlwaysRun() {
+        AtomicInteger writes = new AtomicInteger();
+
+        store.execute("create", null, () -> "hash-1", () -> Mono.fromRunnable(writes::incrementAndGet)).block();
+        store.execute("create", null, () -> "hash-1", () -> Mono.fromRunnable(writes::incrementAndGet)).block();
+        assertEquals(2, writes.get());
+    }
+
+    @Test
+    void failedWriteCanBeRetried() {
+        AtomicInteger writes = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> store.execute("create", "key-1", () -> "hash-1", () -> Mono.<Void>fromRunnable(() -> {
+            writes.incrementAndGet();
+            throw new IllegalStateException("Broker is down");
+        })).block());
+
+        store.execute("create", "key-1", () -> "hash-1", () -> Mono.fromRunnable(writes::incrementAndGet)).block();
+        assertEquals(2, writes.get());
+    }
+
+    @Test
+    void retryWaitsForTheWriteInProgress() {
+        AtomicInteger writes = new AtomicInteger();
+        Sinks.Empty<Void> published = Sinks.empty();
+
+        Mono<Void> first = store.execute("create", "key-1", () -> "hash-1", () -> {
+            writes.incrementAndGet();
+            return published.asMono();
+        });
+        Mono<Void> retry = store.execute("create", "key-1", () -> "hash-1", () -> {
+            writes.incrementAndGet();
+            return Mono.empty();
+        });
+
+        AtomicInteger completed = new AtomicInteger();
+        first.subscribe(null, null, completed::incrementAndGet);
+        retry.subscribe(null, null, completed::incrementAndGet);
+        assertEquals(0, completed.get());
+
+        published.tryEmitEmpty();
+        assertEquals(2, completed.get());
+        assertEquals(1, writes.get());
+    }
+
+    @Test
+    void invalidKeyIsRejected() {
+        assertThrows(InvalidInputException.class, () -> store.execute("create", " ", () -> "hash-1", Mono::empty));
+    }
+}
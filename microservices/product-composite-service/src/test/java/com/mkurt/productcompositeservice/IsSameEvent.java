@@ -38,6 +38,7 @@ public class IsSameEvent extends TypeSafeMatcher<String> {
         LOG.trace("Convert the following json string to a map: {}", eventAsJson);
         Map mapEvent = convertJsonStringToMap(eventAsJson);
         mapEvent.remove("eventCreatedAt");
+        mapEvent.remove("eventId");
 
         Map mapExpectedEvent = getMapWithoutCreatedAt(expectedEvent);
 
@@ -56,6 +57,7 @@ public class IsSameEvent extends TypeSafeMatcher<String> {
      * For testing events, the specific timestamp for when an event was created is irrelevant.
      * To be able to compare an actual event with an expected event, ignoring differences in the field eventCreatedAt,
      * Compares Event objects and treats them as equal if all the fields are equal, except for the eventCreatedAt field.
+     * The eventId field is unique per event and is ignored as well.
      */
     public static Matcher<String> sameEventExceptCreatedAt(Event expectedEvent) {
         return new IsSameEvent(expectedEvent);
@@ -64,6 +66,7 @@ public class IsSameEvent extends TypeSafeMatcher<String> {
     private Map getMapWithoutCreatedAt(Event event) {
         Map mapEvent = convertObjectToMap(event);
         mapEvent.remove("eventCreatedAt");
+        mapEvent.remove("eventId");
         return mapEvent;
     }
 
@@ -1,6 +1,7 @@
 package com.mkurt.productcompositeservice;
 
 import com.mkurt.api.composite.ProductAggregate;
+import com.mkurt.api.composite.ProductImportResult;
 import com.mkurt.api.composite.RecommendationSummary;
 import com.mkurt.api.composite.ReviewSummary;
 import com.mkurt.api.core.product.Product;
@@ -26,12 +27,15 @@ import java.util.List;
 import static com.mkurt.api.event.Event.Type.CREATE;
 import static com.mkurt.api.event.Event.Type.DELETE;
 import static com.mkurt.productcompositeservice.IsSameEvent.sameEventExceptCreatedAt;
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.ACCEPTED;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static reactor.core.publisher.Mono.just;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT,
@@ -120,6 +124,87 @@ public class MessagingTests {
         assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedReviewEvent)));
     }
 
+    @Test
+    void createCompositeProductWithBatches() {
+
+        ProductAggregate composite = new ProductAggregate(1, "name", 1,
+                asList(new RecommendationSummary(1, "a", 1, "c"), new RecommendationSummary(2, "a", 2, "c")),
+                asList(new ReviewSummary(1, "a", "s", "c"), new ReviewSummary(2, "a", "s", "c")), null);
+        postAndVerifyProduct(composite, ACCEPTED);
+
+        final List<String> recommendationMessages = getMessages("recommendations");
+        final List<String> reviewMessages = getMessages("reviews");
+
+        // Assert one batch event per topic, with all recommendations and reviews
+        assertEquals(1, recommendationMessages.size());
+
+        Event<Integer, Recommendation> expectedRecommendationEvent = Event.createBatch(composite.getProductId(), asList(
+                new Recommendation(1, 1, "a", 1, "c", null),
+                new Recommendation(1, 2, "a", 2, "c", null)));
+        assertThat(recommendationMessages.get(0), is(sameEventExceptCreatedAt(expectedRecommendationEvent)));
+
+        assertEquals(1, reviewMessages.size());
+
+        Event<Integer, Review> expectedReviewEvent = Event.createBatch(composite.getProductId(), asList(
+                new Review(1, 1, "a", "s", "c", null),
+                new Review(1, 2, "a", "s", "c", null)));
+        assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedReviewEvent)));
+    }
+
+    @Test
+    void importCompositeProducts() {
+
+        String body = "{\"productId\":1,\"name\":\"name\",\"weight\":1}\n" +
+                "\n" +
+                "{\"productId\":0,\"name\":\"name\",\"weight\":1}\n" +
+                "{\"productId\":\n" +
+                "{\"productId\":2,\"name\":\"name\",\"weight\":2,\"reviews\":[{\"reviewId\":1,\"author\":\"a\",\"subject\":\"s\",\"content\":\"c\"}]}\n";
+
+        List<ProductImportResult> results = client.post()
+                .uri("/product-composite/import")
+                .contentType(APPLICATION_NDJSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectBodyList(ProductImportResult.class)
+                .returnResult()
+                .getResponseBody();
+
+        // One result per non-blank line, in the order of the lines
+        assertEquals(4, results.size());
+        assertEquals(1, results.get(0).getLine());
+        assertEquals(ProductImportResult.Status.ACCEPTED, results.get(0).getStatus());
+        assertEquals(3, results.get(1).getLine());
+        assertEquals(ProductImportResult.Status.REJECTED, results.get(1).getStatus());
+        assertEquals(4, results.get(2).getLine());
+        assertEquals(ProductImportResult.Status.REJECTED, results.get(2).getStatus());
+        assertEquals(5, results.get(3).getLine());
+        assertEquals(ProductImportResult.Status.ACCEPTED, results.get(3).getStatus());
+
+        // Only the accepted lines are published, as one CREATE_BATCH event per topic
+        assertEquals(1, getMessages("products").size());
+        assertEquals(0, getMessages("recommendations").size());
+        assertEquals(1, getMessages("reviews").size());
+    }
+
+    @Test
+    void retriedCreateWithIdempotencyKeyIsPublishedOnce() {
+        ProductAggregate composite = new ProductAggregate(1, "name", 1, null, null, null);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            client.post()
+                    .uri("/product-composite")
+                    .header("Idempotency-Key", "create-1")
+                    .body(just(composite), ProductAggregate.class)
+                    .exchange()
+                    .expectStatus()
+                    .isEqualTo(ACCEPTED);
+        }
+
+        assertEquals(1, getMessages("products").size());
+    }
+
     @Test
     void deleteCompositeProduct() {
         deleteAndVerifyProduct(1, ACCEPTED);
@@ -147,6 +232,36 @@ public class MessagingTests {
         assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedReviewEvent)));
     }
 
+    @Test
+    void deleteCompositeProductsByIdsAndRange() {
+        client.delete()
+                .uri("/product-composite?ids=1,2,3")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(ACCEPTED);
+
+        // Assert one delete event per topic for all ids
+        Event<Integer, Object> expectedListEvent = Event.deleteList(asList(1, 2, 3));
+        for (String bindingName : asList("products", "recommendations", "reviews")) {
+            List<String> messages = getMessages(bindingName);
+            assertEquals(1, messages.size());
+            assertThat(messages.get(0), is(sameEventExceptCreatedAt(expectedListEvent)));
+        }
+
+        client.delete()
+                .uri("/product-composite?fromId=10&toId=100000")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(ACCEPTED);
+
+        Event<Integer, Object> expectedRangeEvent = Event.deleteRange(10, 100000);
+        for (String bindingName : asList("products", "recommendations", "reviews")) {
+            List<String> messages = getMessages(bindingName);
+            assertEquals(1, messages.size());
+            assertThat(messages.get(0), is(sameEventExceptCreatedAt(expectedRangeEvent)));
+        }
+    }
+
     // uses the getMessages() method to purge a topic from all current messages
     private void purgeMessages(String bindingName) {
         getMessages(bindingName);
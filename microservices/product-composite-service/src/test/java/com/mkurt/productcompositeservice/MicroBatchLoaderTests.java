@@ -0,0 +1,127 @@
+package com.mkurt.productcompositeservice;
+
+import com.mkurt.productcompositeservice.service.MicroBatchLoader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MicroBatchLoaderTests {
+
+    @Test
+    void concurrentLoadsShareOneCall() {
+        List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+        MicroBatchLoader<Integer, String> loader = createLoader(true, 100, keys -> {
+            batches.add(keys);
+            return Flux.fromIterable(keys).filter(key -> key != 3).map(key -> Tuples.of(key, "value-" + key));
+        }, key -> Mono.just("single-" + key));
+
+        List<String> values = Flux.just(1, 2, 2, 3)
+                .flatMap(key -> loader.load(key).defaultIfEmpty("none-" + key))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(1, batches.size());
+        assertEquals(List.of(1, 2, 3), batches.get(0));
+        assertEquals(List.of("none-3", "value-1", "value-2", "value-2"), sorted(values));
+    }
+
+    @Test
+    void fullBatchIsDispatchedAtOnce() {
+        List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+        MicroBatchLoader<Integer, String> loader = createLoader(true, 2, keys -> {
+            batches.add(keys);
+            return Flux.fromIterable(keys).map(key -> Tuples.of(key, "value-" + key));
+        }, key -> Mono.just("single-" + key));
+
+        Flux.just(1, 2, 3, 4, 5).flatMap(loader::load).collectList().block(Duration.ofSeconds(5));
+
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4), List.of(5)), batches);
+    }
+
+    @Test
+    void failedBatchIsLoadedKeyByKey() {
+        AtomicInteger singleCalls = new AtomicInteger();
+        MicroBatchLoader<Integer, String> loader = createLoader(true, 100,
+                keys -> Flux.just(Tuples.of(1, "value-1")).concatWith(Flux.error(new RuntimeException("failed"))),
+                key -> {
+                    singleCalls.incrementAndGet();
+                    return Mono.just("single-" + key);
+                });
+
+        List<String> values = Flux.just(1, 2).flatMap(loader::load).collectList().block(Duration.ofSeconds(5));
+
+        assertEquals(List.of("single-2", "value-1"), sorted(values));
+        assertEquals(1, singleCalls.get());
+    }
+
+    @Test
+    void keyCutOffByFailedBatchIsLoadedAgain() {
+        MicroBatchLoader<Integer, List<String>> loader = new MicroBatchLoader<>("test", true, Duration.ofMillis(20), 100,
+                keys -> MicroBatchLoader.groupByKey(Flux.just("1a", "1b", "2a").concatWith(Flux.error(new RuntimeException("failed"))),
+                        value -> value.charAt(0) - '0'),
+                key -> Mono.just(List.of("single-" + key)), new SimpleMeterRegistry());
+
+        // The values of key 2 may be incomplete, they are not passed on
+        List<List<String>> values = Flux.just(1, 2).flatMapSequential(loader::load).collectList().block(Duration.ofSeconds(5));
+
+        assertEquals(List.of(List.of("1a", "1b"), List.of("single-2")), values);
+    }
+
+    @Test
+    void disabledLoaderLoadsKeyByKey() {
+        MicroBatchLoader<Integer, String> loader = createLoader(false, 100,
+                keys -> Flux.error(new IllegalStateException("No batch calls expected")),
+                key -> Mono.just("single-" + key));
+
+        StepVerifier.create(loader.load(1))
+                .expectNext("single-1")
+                .verifyComplete();
+    }
+
+    @Test
+    void throwingLoadersFailTheLoad() {
+        MicroBatchLoader<Integer, String> loader = createLoader(true, 100, keys -> {
+            throw new IllegalArgumentException("invalid batch");
+        }, key -> {
+            throw new IllegalArgumentException("invalid key: " + key);
+        });
+
+        StepVerifier.create(loader.load(1))
+                .expectErrorMessage("invalid key: 1")
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void valuesAreGroupedByKey() {
+        StepVerifier.create(MicroBatchLoader.groupByKey(Flux.just("1a", "1b", "2a", "3a", "3b"), value -> value.charAt(0)))
+                .expectNext(Tuples.of('1', List.of("1a", "1b")))
+                .expectNext(Tuples.of('2', List.of("2a")))
+                .expectNext(Tuples.of('3', List.of("3a", "3b")))
+                .verifyComplete();
+    }
+
+    private MicroBatchLoader<Integer, String> createLoader(boolean enabled, int maxBatchSize,
+                                                          Function<List<Integer>, Flux<Tuple2<Integer, String>>> batchLoader,
+                                                          Function<Integer, Mono<String>> singleLoader) {
+        return new MicroBatchLoader<>("test", enabled, Duration.ofMillis(20), maxBatchSize, batchLoader, singleLoader, new SimpleMeterRegistry());
+    }
+
+    private List<String> sorted(List<String> values) {
+        List<String> sortedValues = new ArrayList<>(values);
+        Collections.sort(sortedValues);
+        return sortedValues;
+    }
+}
@@ -0,0 +1,63 @@
+package com.mkurt.productcompositeservice;
+
+import com.mkurt.api.composite.ProductAggregate;
+import com.mkurt.productcompositeservice.service.ProductAggregateCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ProductAggregateCacheTests {
+
+    @Test
+    void invalidationOfOtherProductKeepsLoad() {
+        ProductAggregateCache cache = createCache(0);
+
+        long loadStamp = cache.startLoad();
+        cache.invalidate(2);
+        cache.invalidateRange(10, 20);
+        cache.put(1, aggregate(1), loadStamp);
+
+        assertNotNull(cache.get(1));
+    }
+
+    @Test
+    void invalidationDuringLoadDiscardsLoad() {
+        ProductAggregateCache cache = createCache(0);
+
+        long loadStamp = cache.startLoad();
+        cache.invalidate(1);
+        cache.put(1, aggregate(1), loadStamp);
+
+        assertNull(cache.get(1));
+
+        loadStamp = cache.startLoad();
+        cache.invalidateRange(1, 5);
+        cache.put(1, aggregate(1), loadStamp);
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    void loadWithinSettleTimeIsNotCached() {
+        ProductAggregateCache cache = createCache(60000);
+
+        cache.invalidate(1);
+        cache.put(1, aggregate(1), cache.startLoad());
+        cache.put(2, aggregate(2), cache.startLoad());
+
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+    }
+
+    private ProductAggregateCache createCache(long settleMs) {
+        return new ProductAggregateCache(true, 100, 60, settleMs, new SimpleMeterRegistry());
+    }
+
+    private ProductAggregate aggregate(int productId) {
+        return new ProductAggregate(productId, "name", 1, List.of(), List.of(), null);
+    }
+}
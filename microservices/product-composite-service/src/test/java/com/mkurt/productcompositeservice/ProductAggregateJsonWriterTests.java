@@ -0,0 +1,87 @@
+package com.mkurt.productcompositeservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mkurt.api.composite.ProductAggregate;
+import com.mkurt.api.composite.RecommendationSummary;
+import com.mkurt.api.composite.ReviewSummary;
+import com.mkurt.api.composite.ServiceAddresses;
+import com.mkurt.api.core.product.Product;
+import com.mkurt.api.core.recommendation.Recommendation;
+import com.mkurt.api.core.review.Review;
+import com.mkurt.productcompositeservice.service.JsonArrayProjector.Projection;
+import com.mkurt.productcompositeservice.service.ProductAggregateJsonWriter;
+import com.mkurt.productcompositeservice.service.StaleProduct;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProductAggregateJsonWriterTests {
+
+    ObjectMapper mapper = new ObjectMapper();
+    ProductAggregateJsonWriter writer = new ProductAggregateJsonWriter(mapper);
+
+    @Test
+    void sameJsonAsProductAggregate() throws Exception {
+
+        Product product = new Product(1, "name \"1\"", 1, "pro");
+        List<Recommendation> recommendations = asList(
+                new Recommendation(1, 1, "author-1", 1, "content ä€ \n 1", "rec-1"),
+                new Recommendation(1, 2, null, 2, "content-2", "rec-2"));
+        List<Review> reviews = Collections.singletonList(
+                new Review(1, 1, "author-1", "subject-1", "content-1", "rev-1"));
+
+        ProductAggregate aggregate = new ProductAggregate(1, product.getName(), 1,
+                asList(new RecommendationSummary(1, "author-1", 1, "content ä€ \n 1"), new RecommendationSummary(2, null, 2, "content-2")),
+                Collections.singletonList(new ReviewSummary(1, "author-1", "subject-1", "content-1")),
+                new ServiceAddresses("cmp", "pro", "rev-1", "rec-1"));
+
+        // Split the bodies into small buffers to make tokens span buffers
+        Projection recommendationProjection = writer.projectRecommendations(chunked(mapper.writeValueAsBytes(recommendations), 7)).block();
+        Projection reviewProjection = writer.projectReviews(chunked(mapper.writeValueAsBytes(reviews), 5)).block();
+
+        String expected = mapper.writeValueAsString(aggregate);
+        String actual = new String(writer.write(product, recommendationProjection, reviewProjection, "cmp"), UTF_8);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void sameJsonForEmptyListsAndStaleProduct() throws Exception {
+
+        Product product = new StaleProduct(new Product(1, "name", 1, "pro"));
+
+        ProductAggregate aggregate = new ProductAggregate(1, "name", 1, Collections.emptyList(), Collections.emptyList(),
+                new ServiceAddresses("cmp", "pro", "", ""), true);
+
+        Projection recommendationProjection = writer.projectRecommendations(chunked("[]".getBytes(UTF_8), 1)).block();
+
+        String expected = mapper.writeValueAsString(aggregate);
+        String actual = new String(writer.write(product, recommendationProjection, Projection.EMPTY, "cmp"), UTF_8);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void truncatedBodyFails() {
+        assertThrows(RuntimeException.class, () ->
+                writer.projectReviews(chunked("[{\"reviewId\":1,".getBytes(UTF_8), 4)).block());
+    }
+
+    private Flux<DataBuffer> chunked(byte[] bytes, int chunkSize) {
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, bytes.length - offset);
+            buffers.add(DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+        }
+        return Flux.fromIterable(buffers);
+    }
+}
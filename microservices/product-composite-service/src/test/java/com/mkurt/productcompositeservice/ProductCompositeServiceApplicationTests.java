@@ -1,30 +1,52 @@
 package com.mkurt.productcompositeservice;
 
 import com.mkurt.api.composite.ProductAggregate;
+import com.mkurt.api.composite.ProductAggregateChunk;
+import com.mkurt.api.composite.ProductCompositeService;
 import com.mkurt.api.composite.RecommendationSummary;
 import com.mkurt.api.composite.ReviewSummary;
 import com.mkurt.api.core.product.Product;
+import com.mkurt.api.core.product.ProductBatch;
 import com.mkurt.api.core.recommendation.Recommendation;
 import com.mkurt.api.core.review.Review;
+import com.mkurt.api.event.Event;
 import com.mkurt.api.exception.InvalidInputException;
 import com.mkurt.api.exception.NotFoundException;
+import com.mkurt.productcompositeservice.service.ProductAggregateCache;
 import com.mkurt.productcompositeservice.service.ProductCompositeIntegration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mkurt.api.composite.ProductAggregateChunk.Type.PRODUCT;
+import static com.mkurt.api.event.Event.Type.DELETE;
 import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static reactor.core.publisher.Mono.just;
 
 // "spring.main.allow-bean-definition-overriding=true" -> search about it
@@ -42,23 +64,46 @@ class ProductCompositeServiceApplicationTests {
 	@MockBean
 	private ProductCompositeIntegration compositeIntegration;
 
+	@Autowired
+	private ProductCompositeService compositeService;
+
+	@Autowired
+	private ProductAggregateCache aggregateCache;
+
+	@Autowired
+	@Qualifier("productCacheInvalidator")
+	private Consumer<Event<Integer, Object>> productCacheInvalidator;
+
 
 	@BeforeEach
 	void setUp() {
-		when(compositeIntegration.getProduct(PRODUCT_ID_OK, anyInt(), anyInt()))
+		aggregateCache.invalidateAll();
+
+		// The reads go through the micro-batch loaders, as in production, i.e. through the multi-id calls
+		when(compositeIntegration.getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt()))
 				.thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
+		when(compositeIntegration.getProducts(anyList())).thenAnswer(invocation -> productBatch(invocation.getArgument(0)));
 
-		when(compositeIntegration.getRecommendations(PRODUCT_ID_OK))
-				.thenReturn(Flux.fromIterable(singletonList(new Recommendation(PRODUCT_ID_OK, 1, "author",
-						1, "content", "mock address"))));
+		Recommendation recommendation = new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address");
+		when(compositeIntegration.getRecommendations(PRODUCT_ID_OK)).thenReturn(Flux.just(recommendation));
+		when(compositeIntegration.loadRecommendations(PRODUCT_ID_OK)).thenReturn(Flux.just(recommendation));
+		when(compositeIntegration.getRecommendationsForProducts(anyList())).thenReturn(Flux.just(recommendation));
 
-		when(compositeIntegration.getReviews(PRODUCT_ID_OK))
-				.thenReturn(Flux.fromIterable(singletonList(new Review(PRODUCT_ID_OK, 1, "author",
-						"subject", "content", "mock address"))));
+		Review review = new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address");
+		when(compositeIntegration.getReviews(PRODUCT_ID_OK)).thenReturn(Flux.just(review));
+		when(compositeIntegration.loadReviews(PRODUCT_ID_OK)).thenReturn(Flux.just(review));
+		when(compositeIntegration.getReviewsForProducts(anyList())).thenReturn(Flux.just(review));
 
-		when(compositeIntegration.getProduct(PRODUCT_ID_NOT_FOUND, anyInt(), anyInt()))
+		when(compositeIntegration.createProduct(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+		when(compositeIntegration.createRecommendation(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+		when(compositeIntegration.createReview(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+		when(compositeIntegration.deleteProduct(anyInt())).thenReturn(Mono.empty());
+		when(compositeIntegration.deleteRecommendations(anyInt())).thenReturn(Mono.empty());
+		when(compositeIntegration.deleteReviews(anyInt())).thenReturn(Mono.empty());
+
+		when(compositeIntegration.getProduct(eq(PRODUCT_ID_NOT_FOUND), anyInt(), anyInt()))
 				.thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
-		when(compositeIntegration.getProduct(PRODUCT_ID_INVALID, anyInt(), anyInt()))
+		when(compositeIntegration.getProduct(eq(PRODUCT_ID_INVALID), anyInt(), anyInt()))
 				.thenThrow(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID));
 	}
 
@@ -103,12 +148,150 @@ class ProductCompositeServiceApplicationTests {
 				.jsonPath("$.reviews.length()").isEqualTo(1);
 	}
 
+	@Test
+	void getProductByIdWithFields() {
+
+		when(compositeIntegration.getReviews(PRODUCT_ID_OK, List.of("author")))
+				.thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 0, "author", null, null, "mock address")));
+
+		client.get()
+				.uri("/product-composite/" + PRODUCT_ID_OK + "?fields=name,reviews.author")
+				.accept(APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
+				.jsonPath("$.name").isEqualTo("name")
+				.jsonPath("$.weight").doesNotHaveJsonPath()
+				.jsonPath("$.recommendations").doesNotHaveJsonPath()
+				.jsonPath("$.reviews[0].author").isEqualTo("author")
+				.jsonPath("$.reviews[0].reviewId").doesNotHaveJsonPath()
+				.jsonPath("$.reviews[0].content").doesNotHaveJsonPath()
+				.jsonPath("$.serviceAddresses").doesNotHaveJsonPath();
+
+		verify(compositeIntegration, never()).getRecommendations(anyInt());
+		verify(compositeIntegration, never()).getRecommendations(anyInt(), anyList());
+		verify(compositeIntegration, never()).getReviews(anyInt());
+	}
+
+	@Test
+	void getProductByIdWithFieldsFromCache() {
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+
+		client.get()
+				.uri("/product-composite/" + PRODUCT_ID_OK + "?fields=weight,recommendations")
+				.accept(APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.name").doesNotHaveJsonPath()
+				.jsonPath("$.weight").isEqualTo(1)
+				.jsonPath("$.recommendations[0].content").isEqualTo("content")
+				.jsonPath("$.reviews").doesNotHaveJsonPath();
+
+		verify(compositeIntegration, times(1)).getProducts(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void getProductByIdWithInvalidField() {
+
+		client.get()
+				.uri("/product-composite/" + PRODUCT_ID_OK + "?fields=reviews.rate")
+				.accept(APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isEqualTo(UNPROCESSABLE_ENTITY)
+				.expectBody()
+				.jsonPath("$.message").isEqualTo("Invalid field: reviews.rate");
+	}
+
+	@Test
+	void getProductByIdFromCache() {
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+		getAndVerifyProduct(PRODUCT_ID_OK, OK)
+				.jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+
+		verify(compositeIntegration, times(1)).getProducts(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void partialProductNotCached() {
+
+		// The batch call fails, and so does the single call the loader falls back on
+		when(compositeIntegration.getReviewsForProducts(anyList())).thenReturn(Flux.error(new RuntimeException("review service down")));
+		when(compositeIntegration.loadReviews(PRODUCT_ID_OK)).thenReturn(Flux.error(new RuntimeException("review service down")));
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK)
+				.jsonPath("$.recommendations.length()").isEqualTo(1)
+				.jsonPath("$.reviews.length()").isEqualTo(0);
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+
+		verify(compositeIntegration, times(2)).getProducts(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void cachedProductInvalidatedByEvent() {
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+
+		productCacheInvalidator.accept(new Event<>(DELETE, PRODUCT_ID_OK, null));
+
+		getAndVerifyProduct(PRODUCT_ID_OK, OK);
+
+		verify(compositeIntegration, times(2)).getProducts(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void concurrentReadsShareOneLoad() {
+
+		when(compositeIntegration.getProducts(anyList()))
+				.thenAnswer(invocation -> productBatch(invocation.getArgument(0)).delayElement(Duration.ofMillis(100)));
+
+		Mono<ProductAggregate> first = compositeService.getCompositeProduct(PRODUCT_ID_OK, 0, 0, null);
+		Mono<ProductAggregate> second = compositeService.getCompositeProduct(PRODUCT_ID_OK, 0, 0, null);
+
+		assertEquals(PRODUCT_ID_OK, Mono.zip(first, second).block().getT2().getProductId());
+
+		verify(compositeIntegration, times(1)).getProducts(List.of(PRODUCT_ID_OK));
+	}
+
+	@Test
+	void getProductsByIds() {
+
+		client.get()
+				.uri("/product-composite?ids=" + PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND)
+				.accept(APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectBody()
+				.jsonPath("$.length()").isEqualTo(1)
+				.jsonPath("$[0].productId").isEqualTo(PRODUCT_ID_OK);
+	}
+
+	@Test
+	void streamProductById() {
+
+		client.get()
+				.uri("/product-composite/" + PRODUCT_ID_OK + "/stream")
+				.accept(APPLICATION_NDJSON)
+				.exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectHeader().contentType(APPLICATION_NDJSON)
+				.returnResult(ProductAggregateChunk.class)
+				.getResponseBody()
+				.as(StepVerifier::create)
+				.expectNextMatches(chunk -> chunk.getType() == PRODUCT && chunk.getProductId() == PRODUCT_ID_OK)
+				.expectNextCount(2)
+				.verifyComplete();
+	}
+
 	@Test
 	void getProductNotFound() {
 
 		getAndVerifyProduct(PRODUCT_ID_NOT_FOUND, NOT_FOUND)
 				.jsonPath("$.path").isEqualTo("/product-composite/" + PRODUCT_ID_NOT_FOUND)
-				.jsonPath("$.message").isEqualTo("NOT FOUND: " + PRODUCT_ID_NOT_FOUND);
+				.jsonPath("$.message").isEqualTo("No product found for id: " + PRODUCT_ID_NOT_FOUND);
 	}
 
 	@Test
@@ -119,6 +302,25 @@ class ProductCompositeServiceApplicationTests {
 				.jsonPath("$.message").isEqualTo("INVALID: " + PRODUCT_ID_INVALID);
 	}
 
+	/**
+	 * Like the product service: an invalid productId fails the whole batch, the loader then falls back on getProduct().
+	 */
+	private Mono<ProductBatch> productBatch(List<Integer> productIds) {
+		if (productIds.contains(PRODUCT_ID_INVALID)) {
+			return Mono.error(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID));
+		}
+		List<Product> products = new ArrayList<>();
+		List<Integer> missingProductIds = new ArrayList<>();
+		for (Integer productId : productIds) {
+			if (productId == PRODUCT_ID_OK) {
+				products.add(new Product(PRODUCT_ID_OK, "name", 1, "mock-address"));
+			} else {
+				missingProductIds.add(productId);
+			}
+		}
+		return Mono.just(new ProductBatch(products, missingProductIds));
+	}
+
 	private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
 		return client.get()
 				.uri("/product-composite/" + productId)
@@ -0,0 +1,55 @@
+package com.mkurt.productcompositeservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mkurt.api.core.product.Product;
+import com.mkurt.productcompositeservice.service.ProductFallbackStore;
+import com.mkurt.productcompositeservice.service.StaleProduct;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProductFallbackStoreTests {
+
+    ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void getReturnsStaleCopy() {
+        ProductFallbackStore store = new ProductFallbackStore(100, "", 10, 512, mapper);
+
+        Product product = new Product(1, "name", 1, "address");
+        store.put(product);
+
+        Product fallback = store.get(1);
+        assertEquals("name", fallback.getName());
+        assertTrue(StaleProduct.isStale(fallback));
+        assertFalse(StaleProduct.isStale(product));
+
+        assertNull(store.get(2));
+    }
+
+    @Test
+    void survivesRestartWhenSpilledToFile() {
+        String file = tempDir.resolve("fallback.bin").toString();
+
+        ProductFallbackStore store = new ProductFallbackStore(100, file, 10, 512, mapper);
+        store.put(new Product(1, "name-1", 1, "address"));
+        store.put(new Product(2, "name-2", 2, "address"));
+        store.put(new Product(12, "name-12", 12, "address")); // Replaces productId 2 in the file, same slot
+        store.remove(1);
+
+        ProductFallbackStore restarted = new ProductFallbackStore(100, file, 10, 512, mapper);
+        assertNull(restarted.get(1));
+        assertNull(restarted.get(2));
+        assertEquals("name-12", restarted.get(12).getName());
+        assertTrue(StaleProduct.isStale(restarted.get(12)));
+    }
+}
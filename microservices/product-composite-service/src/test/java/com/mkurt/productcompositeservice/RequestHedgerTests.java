@@ -0,0 +1,88 @@
+package com.mkurt.productcompositeservice;
+
+import com.mkurt.productcompositeservice.service.RequestHedger;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RequestHedgerTests {
+
+    @Test
+    void slowCallIsHedged() {
+        RequestHedger hedger = createHedger(1.0);
+        warmUp(hedger);
+
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<Flux<Integer>> slowFirstCall = () -> calls.incrementAndGet() == 1
+                ? Flux.just(1).delayElements(Duration.ofSeconds(5))
+                : Flux.just(2);
+
+        StepVerifier.create(hedger.hedge(slowFirstCall))
+                .expectNext(2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void noHedgingWithoutBudget() {
+        RequestHedger hedger = createHedger(0.0);
+        warmUp(hedger);
+
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<Flux<Integer>> slowCall = () -> Flux.just(calls.incrementAndGet()).delayElements(Duration.ofMillis(200));
+
+        StepVerifier.create(hedger.hedge(slowCall))
+                .expectNext(1)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void failedCallDoesNotWinOverRunningHedgedCall() {
+        RequestHedger hedger = createHedger(1.0);
+        warmUp(hedger);
+
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<Flux<Integer>> failingFirstCall = () -> calls.incrementAndGet() == 1
+                ? Flux.<Integer>error(new IllegalStateException("failed")).delaySubscription(Duration.ofMillis(100))
+                : Flux.just(2).delayElements(Duration.ofMillis(300));
+
+        StepVerifier.create(hedger.hedge(failingFirstCall))
+                .expectNext(2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+    }
+
+    @Test
+    void hedgeFailsWhenBothCallsFail() {
+        RequestHedger hedger = createHedger(1.0);
+        warmUp(hedger);
+
+        Supplier<Flux<Integer>> failingCall = () -> Flux.<Integer>error(new IllegalStateException("failed")).delaySubscription(Duration.ofMillis(100));
+
+        StepVerifier.create(hedger.hedge(failingCall))
+                .expectError(IllegalStateException.class)
+                .verify(Duration.ofSeconds(2));
+    }
+
+    private RequestHedger createHedger(double budgetRatio) {
+        return new RequestHedger("test", true, 0.95, 10, 10, Duration.ofMillis(1), budgetRatio, new SimpleMeterRegistry());
+    }
+
+    private void warmUp(RequestHedger hedger) {
+        for (int i = 0; i < 10; i++) {
+            hedger.hedge(() -> Flux.just(0)).blockLast();
+        }
+    }
+}
@@ -1,11 +1,24 @@
 package com.mkurt.productservice.persistence;
 
+import org.springframework.data.domain.Range;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+
 @Repository
 public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String> {
 
     Mono<ProductEntity> findByProductId(int productId);
+
+    // One $in query, served by the unique productId index
+    Flux<ProductEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    // Derived delete queries are executed as one deleteMany, they return the number of deleted documents
+    Mono<Long> deleteByProductIdIn(Collection<Integer> productIds);
+
+    // Use Range.closed() to include the bounds, Between with two plain values excludes them
+    Mono<Long> deleteByProductIdBetween(Range<Integer> productIds);
 }
@@ -4,12 +4,26 @@ import com.mkurt.api.core.product.Product;
 import com.mkurt.api.core.product.ProductService;
 import com.mkurt.api.event.Event;
 import com.mkurt.api.exception.EventProcessingException;
+import com.mkurt.util.messaging.AckTracker;
+import com.mkurt.util.messaging.DeadLetters;
+import com.mkurt.util.messaging.DuplicateEventFilter;
+import com.mkurt.util.messaging.EventCoalescer;
+import com.mkurt.util.messaging.EventValidator;
+import com.mkurt.util.messaging.FailedEvent;
+import com.mkurt.util.messaging.KeyOrderedDispatcher;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 @Configuration
@@ -17,11 +31,40 @@ public class MessageProcessorConfig {
 
     private final static Logger LOG = LoggerFactory.getLogger(MessageProcessorConfig.class);
 
+    // The binding that failed events of the batch and key ordered consumers are sent to
+    private static final String DLQ_BINDING = "productsDlq";
+
     private final ProductService productService;
+    private final ProductBatchWriter batchWriter;
+    private final DeadLetters deadLetters;
+    private final DuplicateEventFilter duplicateFilter;
+    private final int lanes;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final long backOffInitialInterval;
+    private final long backOffMaxInterval;
 
     @Autowired
-    public MessageProcessorConfig(ProductService productService) {
+    public MessageProcessorConfig(ProductService productService,
+                                  ProductBatchWriter batchWriter,
+                                  StreamBridge streamBridge,
+                                  @Value("${app.messageProcessor.lanes:8}") int lanes,
+                                  @Value("${app.messageProcessor.maxInFlight:64}") int maxInFlight,
+                                  @Value("${app.messageProcessor.maxAttempts:3}") int maxAttempts,
+                                  @Value("${app.messageProcessor.backOffInitialInterval:500}") long backOffInitialInterval,
+                                  @Value("${app.messageProcessor.backOffMaxInterval:1000}") long backOffMaxInterval,
+                                  @Value("${app.messageProcessor.duplicates.maxEvents:100000}") int maxEvents,
+                                  @Value("${app.messageProcessor.duplicates.falsePositiveRate:0.01}") double falsePositiveRate,
+                                  MeterRegistry meterRegistry) {
         this.productService = productService;
+        this.batchWriter = batchWriter;
+        this.deadLetters = new DeadLetters(DLQ_BINDING, streamBridge::send);
+        this.duplicateFilter = new DuplicateEventFilter("products", maxEvents, falsePositiveRate, meterRegistry);
+        this.lanes = lanes;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.backOffInitialInterval = backOffInitialInterval;
+        this.backOffMaxInterval = backOffMaxInterval;
     }
 
 
@@ -39,6 +82,10 @@ public class MessageProcessorConfig {
         return event -> {
             LOG.info("Process message created at {}...", event.getEventCreatedAt());
 
+            if (duplicateFilter.isDuplicate(event)) {
+                return;
+            }
+
             switch (event.getEventType()) {
 
                 case CREATE:
@@ -48,6 +95,15 @@ public class MessageProcessorConfig {
                             .block();
                     break;
 
+                case CREATE_BATCH:
+                    // Written like a batch of one event, the products that can be inserted are inserted
+                    LOG.info("Create {} products", event.getItems().size());
+                    List<FailedEvent<Integer, Product>> failures = batchWriter.write(List.of(event), applied -> {}).block();
+                    if (!failures.isEmpty()) {
+                        throw new EventProcessingException("Failed to create some of the products of a CREATE_BATCH event: " + failures.get(0).getReason());
+                    }
+                    break;
+
                 case DELETE:
                     int productId = event.getKey();
                     LOG.info("Delete recommendations with ProductID: {}", productId);
@@ -55,13 +111,106 @@ public class MessageProcessorConfig {
                             .block();
                     break;
 
+                case DELETE_LIST:
+                    List<Integer> productIds = event.getKeys();
+                    LOG.info("Delete {} products", productIds.size());
+                    productService.deleteProducts(productIds)
+                            .block();
+                    break;
+
+                case DELETE_RANGE:
+                    LOG.info("Delete products with ProductID {} to {}", event.getKeys().get(0), event.getKeys().get(1));
+                    productService.deleteProductRange(event.getKeys().get(0), event.getKeys().get(1))
+                            .block();
+                    break;
+
                 default:
-                    String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+                    String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, CREATE_BATCH, DELETE, DELETE_LIST or DELETE_RANGE event";
                     LOG.warn(errorMessage);
                     throw new EventProcessingException(errorMessage);
             }
+            duplicateFilter.markProcessed(event);
             LOG.info("Message processing done!");
         };
     }
 
+    /**
+     * Batch variant of messageProcessor, selected by the batch_consumer profile. The binder delivers a list of
+     * events that is applied with unordered bulk writes, see ProductBatchWriter. Only the events that fail are sent
+     * to the dead-letter queue, one by one, the rest of the batch is acknowledged. An error that is not tied to an
+     * event, e.g. a lost connection to MongoDB, fails the whole batch and is retried by the binder. The events of
+     * the bulk writes that were done before the error are marked as processed as soon as they are written, so the
+     * retry skips them and only writes what is left.
+     */
+    @Bean
+    public Consumer<List<Event<Integer, Product>>> batchMessageProcessor() {
+
+        return events -> {
+            LOG.info("Process a batch of {} messages...", events.size());
+
+            List<Event<Integer, Product>> validEvents = new ArrayList<>();
+            List<FailedEvent<Integer, Product>> failedEvents = new ArrayList<>();
+            for (Event<Integer, Product> event : events) {
+                if (duplicateFilter.isDuplicate(event)) {
+                    continue;
+                }
+                String error = EventValidator.validate(event, "product", Product::getProductId);
+                if (error == null) {
+                    validEvents.add(event);
+                } else {
+                    failedEvents.add(new FailedEvent<>(event, error));
+                }
+            }
+
+            if (!validEvents.isEmpty()) {
+                failedEvents.addAll(batchWriter.write(validEvents, duplicateFilter::markProcessed).block());
+            }
+
+            failedEvents.forEach(deadLetters::send);
+            LOG.info("Batch processing done, {} of {} messages failed", failedEvents.size(), events.size());
+        };
+    }
+
+    /**
+     * Key ordered variant of messageProcessor, selected by the key_ordered_consumer profile. Events for different
+     * products are processed at the same time on a number of lanes, events for the same product one after the other,
+     * see KeyOrderedDispatcher. A message is acknowledged once it and all earlier messages of its partition are done.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.cloud.function.definition", havingValue = "keyOrderedMessageProcessor")
+    public Consumer<Message<Event<Integer, Product>>> keyOrderedMessageProcessor(KeyOrderedDispatcher dispatcher) {
+
+        Consumer<Event<Integer, Product>> processor = messageProcessor();
+        return message -> dispatcher.dispatch(message, KeyOrderedDispatcher.orderingKey(message.getPayload()),
+                () -> processor.accept(message.getPayload()));
+    }
+
+    /**
+     * Coalescing variant of keyOrderedMessageProcessor, selected by the coalescing_consumer profile. The events of a
+     * product are held for a few milliseconds, and only their net effect is processed, see EventCoalescer.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.cloud.function.definition", havingValue = "coalescingMessageProcessor")
+    public Consumer<Message<Event<Integer, Product>>> coalescingMessageProcessor(EventCoalescer<Integer, Product> coalescer) {
+        return coalescer::add;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "spring.cloud.function.definition", havingValue = "coalescingMessageProcessor")
+    public EventCoalescer<Integer, Product> eventCoalescer(@Value("${app.messageProcessor.coalescing.windowMs:5}") long windowMs,
+                                                         @Value("${app.messageProcessor.coalescing.maxPending:256}") int maxPending) {
+
+        return new EventCoalescer<>("products", windowMs, maxPending, createDispatcher(), messageProcessor());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "spring.cloud.function.definition", havingValue = "keyOrderedMessageProcessor")
+    public KeyOrderedDispatcher keyOrderedDispatcher() {
+        return createDispatcher();
+    }
+
+    private KeyOrderedDispatcher createDispatcher() {
+        return new KeyOrderedDispatcher("products", lanes, maxInFlight, maxAttempts, backOffInitialInterval, backOffMaxInterval,
+                new AckTracker(deadLetters::send));
+    }
 }
@@ -0,0 +1,212 @@
+package com.mkurt.productservice.service;
+
+import com.mkurt.api.core.product.Product;
+import com.mkurt.api.event.Event;
+import com.mkurt.productservice.persistence.ProductEntity;
+import com.mkurt.util.messaging.FailedEvent;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+
+/**
+ * Applies a batch of product events with unordered bulk writes, i.e. one round trip to MongoDB for many events.
+ * An unordered bulk write may apply its operations in any order, so the batch is split into segments where no two
+ * events concern the same product. The segments are written one after the other, which keeps the order of the
+ * events per product. Events that fail, e.g. a create of an existing product, are returned together with the
+ * reason, the other events of the batch are applied anyway. A CREATE_BATCH event is one insert per product, it
+ * fails if any of them fails, the other products of the event are inserted anyway.
+ *
+ * Any other error, e.g. a lost connection, stops the write at the segment it happened in. The events of the
+ * segments before it are already passed to the applied callback, so the caller knows which events are left.
+ */
+@Component
+public class ProductBatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductBatchWriter.class);
+
+    private static final String PRODUCT_ID = "productId";
+
+    private final ReactiveMongoTemplate template;
+    private final ProductMapper mapper;
+
+    @Autowired
+    public ProductBatchWriter(ReactiveMongoTemplate template, ProductMapper mapper) {
+        this.template = template;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Returns the events that could not be applied, the events must have been validated by the caller. The applied
+     * callback is called for each event that was applied, as soon as the bulk write of its segment is done.
+     */
+    public Mono<List<FailedEvent<Integer, Product>>> write(List<Event<Integer, Product>> events, Consumer<Event<Integer, Product>> applied) {
+        List<Segment> segments = new ArrayList<>();
+        Segment current = new Segment();
+
+        for (Event<Integer, Product> event : events) {
+            if (current.overlaps(event)) {
+                segments.add(current);
+                current = new Segment();
+            }
+            current.add(event, toWriteModels(event));
+        }
+        segments.add(current);
+
+        LOG.debug("Writes {} product events in {} bulk writes", events.size(), segments.size());
+
+        return Flux.fromIterable(segments)
+                .concatMap(segment -> write(segment, applied))
+                .flatMapIterable(failures -> failures)
+                .collectList();
+    }
+
+    private Mono<List<FailedEvent<Integer, Product>>> write(Segment segment, Consumer<Event<Integer, Product>> applied) {
+        return template.getCollection(template.getCollectionName(ProductEntity.class))
+                .flatMap(collection -> Mono.from(collection.bulkWrite(segment.models, new BulkWriteOptions().ordered(false))))
+                .map(result -> {
+                    LOG.debug("Bulk write done, inserted: {}, deleted: {}", result.getInsertedCount(), result.getDeletedCount());
+                    return Collections.<FailedEvent<Integer, Product>>emptyList();
+                })
+                // Any other error fails the whole segment, it is passed on to let the binder retry the batch
+                .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(failedEvents(segment, ex)))
+                .doOnNext(failures -> segment.appliedEvents(failures).forEach(applied));
+    }
+
+    // One failure per event, with the reasons of all its failed write models
+    private List<FailedEvent<Integer, Product>> failedEvents(Segment segment, MongoBulkWriteException ex) {
+        Map<Event<Integer, Product>, String> reasons = new IdentityHashMap<>();
+        List<Event<Integer, Product>> failedEvents = new ArrayList<>();
+        for (BulkWriteError error : ex.getWriteErrors()) {
+            Event<Integer, Product> event = segment.events.get(error.getIndex());
+            String reason = reasons.get(event);
+            if (reason == null) {
+                failedEvents.add(event);
+            }
+            reasons.put(event, reason == null ? error.getMessage() : reason + "; " + error.getMessage());
+        }
+        return failedEvents.stream()
+                .map(event -> new FailedEvent<>(event, reasons.get(event)))
+                .collect(Collectors.toList());
+    }
+
+    private List<WriteModel<Document>> toWriteModels(Event<Integer, Product> event) {
+        switch (event.getEventType()) {
+
+            case CREATE:
+                return Collections.singletonList(insert(event.getData()));
+
+            case CREATE_BATCH:
+                return event.getItems().stream().map(this::insert).collect(Collectors.toList());
+
+            case DELETE:
+                return Collections.singletonList(new DeleteManyModel<>(eq(PRODUCT_ID, event.getKey())));
+
+            case DELETE_LIST:
+                return Collections.singletonList(new DeleteManyModel<>(in(PRODUCT_ID, event.getKeys())));
+
+            case DELETE_RANGE:
+                Bson range = and(gte(PRODUCT_ID, event.getKeys().get(0)), lte(PRODUCT_ID, event.getKeys().get(1)));
+                return Collections.singletonList(new DeleteManyModel<>(range));
+
+            default:
+                throw new IllegalArgumentException("Unsupported event type in a bulk write: " + event.getEventType());
+        }
+    }
+
+    private WriteModel<Document> insert(Product product) {
+        ProductEntity entity = mapper.apiToEntity(product);
+        // Same initial version as a save() through the repository
+        entity.setVersion(0);
+        Document document = new Document();
+        template.getConverter().write(entity, document);
+        return new InsertOneModel<>(document);
+    }
+
+    /**
+     * Events that concern different products, tracked by productId and by the ranges of range deletes.
+     */
+    private static class Segment {
+
+        // The event of each write model, an event with more than one write model is listed once per model
+        private final List<Event<Integer, Product>> events = new ArrayList<>();
+        private final List<WriteModel<Document>> models = new ArrayList<>();
+        private final Set<Integer> productIds = new HashSet<>();
+        private final List<int[]> ranges = new ArrayList<>();
+
+        void add(Event<Integer, Product> event, List<WriteModel<Document>> eventModels) {
+            eventModels.forEach(model -> {
+                events.add(event);
+                models.add(model);
+            });
+            if (event.getEventType() == Event.Type.DELETE_RANGE) {
+                ranges.add(new int[] {event.getKeys().get(0), event.getKeys().get(1)});
+            } else {
+                productIds.addAll(productIdsOf(event));
+            }
+        }
+
+        // The events of the segment in their order, each one once, without the failed ones
+        List<Event<Integer, Product>> appliedEvents(List<FailedEvent<Integer, Product>> failures) {
+            Set<Event<Integer, Product>> done = Collections.newSetFromMap(new IdentityHashMap<>());
+            failures.forEach(failure -> done.add(failure.getEvent()));
+            List<Event<Integer, Product>> appliedEvents = new ArrayList<>();
+            for (Event<Integer, Product> event : events) {
+                if (done.add(event)) {
+                    appliedEvents.add(event);
+                }
+            }
+            return appliedEvents;
+        }
+
+        boolean overlaps(Event<Integer, Product> event) {
+            if (event.getEventType() == Event.Type.DELETE_RANGE) {
+                int from = event.getKeys().get(0);
+                int to = event.getKeys().get(1);
+                return productIds.stream().anyMatch(productId -> productId >= from && productId <= to)
+                        || ranges.stream().anyMatch(range -> range[0] <= to && from <= range[1]);
+            }
+
+            return productIdsOf(event).stream().anyMatch(productId -> productIds.contains(productId)
+                    || ranges.stream().anyMatch(range -> productId >= range[0] && productId <= range[1]));
+        }
+
+        private static List<Integer> productIdsOf(Event<Integer, Product> event) {
+            switch (event.getEventType()) {
+                case DELETE_LIST:
+                    return event.getKeys();
+                case CREATE_BATCH:
+                    return event.getItems().stream().map(Product::getProductId).collect(Collectors.toList());
+                default:
+                    return Collections.singletonList(event.getKey());
+            }
+        }
+    }
+}
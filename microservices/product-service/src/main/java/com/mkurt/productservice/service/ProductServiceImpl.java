@@ -1,6 +1,7 @@
 package com.mkurt.productservice.service;
 
 import com.mkurt.api.core.product.Product;
+import com.mkurt.api.core.product.ProductBatch;
 import com.mkurt.api.core.product.ProductService;
 import com.mkurt.api.exception.InvalidInputException;
 import com.mkurt.api.exception.NotFoundException;
@@ -11,11 +12,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 @RestController
@@ -23,6 +31,8 @@ public class ProductServiceImpl implements ProductService {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProductServiceImpl.class);
 
+    private static final int MAX_PRODUCT_IDS = 1000;
+
     private final ServiceUtil serviceUtil;
     private final ProductRepository repository;
     private final ProductMapper mapper;
@@ -69,6 +79,43 @@ public class ProductServiceImpl implements ProductService {
                 .map(this::setServiceAddress);
     }
 
+    @Override
+    public Mono<ProductBatch> getProducts(List<Integer> productIds) {
+
+        if (productIds.isEmpty() || productIds.size() > MAX_PRODUCT_IDS) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + MAX_PRODUCT_IDS);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        Set<Integer> distinctIds = new LinkedHashSet<>(productIds);
+        LOG.info("Will get product info for {} ids", distinctIds.size());
+
+        return repository.findByProductIdIn(distinctIds)
+                .log(LOG.getName(), Level.FINE)
+                .collectMap(ProductEntity::getProductId, Function.identity())
+                .map(entities -> toBatch(distinctIds, entities));
+    }
+
+    private ProductBatch toBatch(Set<Integer> productIds, Map<Integer, ProductEntity> entities) {
+        List<Product> products = new ArrayList<>(entities.size());
+        List<Integer> missingProductIds = new ArrayList<>();
+        for (Integer productId : productIds) {
+            ProductEntity entity = entities.get(productId);
+            if (entity == null) {
+                missingProductIds.add(productId);
+            } else {
+                products.add(setServiceAddress(mapper.entityToApi(entity)));
+            }
+        }
+
+        LOG.debug("getProducts: found {} products, {} missing", products.size(), missingProductIds.size());
+        return new ProductBatch(products, missingProductIds);
+    }
+
     private ProductEntity throwErrorIfBadLuck(ProductEntity productEntity, int faultPercent) {
         if(faultPercent == 0)
             return productEntity;
@@ -102,4 +149,35 @@ public class ProductServiceImpl implements ProductService {
                 .map(repository::delete)
                 .flatMap(t -> t);
     }
+
+    @Override
+    public Mono<Void> deleteProducts(List<Integer> productIds) {
+
+        if (productIds.isEmpty() || productIds.size() > MAX_PRODUCT_IDS) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + MAX_PRODUCT_IDS);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+        LOG.debug("deleteProducts: tries to delete the entities of {} productIds", productIds.size());
+
+        return repository.deleteByProductIdIn(productIds)
+                .doOnNext(count -> LOG.debug("deleteProducts: deleted {} entities", count))
+                .then();
+    }
+
+    @Override
+    public Mono<Void> deleteProductRange(int fromProductId, int toProductId) {
+
+        if (fromProductId < 1 || toProductId < fromProductId) {
+            throw new InvalidInputException("Invalid productId range: " + fromProductId + " to " + toProductId);
+        }
+        LOG.debug("deleteProductRange: tries to delete the entities with productId {} to {}", fromProductId, toProductId);
+
+        return repository.deleteByProductIdBetween(Range.closed(fromProductId, toProductId))
+                .doOnNext(count -> LOG.debug("deleteProductRange: deleted {} entities", count))
+                .then();
+    }
 }
@@ -0,0 +1,91 @@
+package com.mkurt.productservice;
+
+import com.mkurt.api.core.product.Product;
+import com.mkurt.api.core.product.ProductService;
+import com.mkurt.api.event.Event;
+import com.mkurt.productservice.service.MessageProcessorConfig;
+import com.mkurt.productservice.service.ProductBatchWriter;
+import com.mkurt.util.messaging.FailedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static com.mkurt.api.event.Event.Type.DELETE;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchMessageProcessorTests {
+
+    private final ProductBatchWriter batchWriter = mock(ProductBatchWriter.class);
+    private final StreamBridge streamBridge = mock(StreamBridge.class);
+    private final List<Message<?>> dlqMessages = new ArrayList<>();
+    private final List<List<Event<Integer, Product>>> writes = new ArrayList<>();
+
+    private final Consumer<List<Event<Integer, Product>>> batchMessageProcessor = new MessageProcessorConfig(
+            mock(ProductService.class), batchWriter, streamBridge, 8, 64, 3, 500, 1000, 1000, 0.01, new SimpleMeterRegistry())
+            .batchMessageProcessor();
+
+    @Test
+    void failedEventsAreSentToDlq() {
+        when(streamBridge.send(anyString(), any())).thenAnswer(invocation -> dlqMessages.add(invocation.getArgument(1)));
+        Event<Integer, Product> duplicate = createEvent(1);
+        when(batchWriter.write(anyList(), any())).thenAnswer(invocation -> {
+            List<Event<Integer, Product>> events = invocation.getArgument(0);
+            writes.add(new ArrayList<>(events));
+            return Mono.just(List.of(new FailedEvent<>(duplicate, "Duplicate key")));
+        });
+
+        Event<Integer, Product> invalid = new Event(DELETE, 0, null);
+        Event<Integer, Product> valid = createEvent(2);
+        batchMessageProcessor.accept(asList(duplicate, invalid, valid));
+
+        // The invalid event is not written, the duplicate is written and fails
+        assertEquals(List.of(asList(duplicate, valid)), writes);
+        assertEquals(2, dlqMessages.size());
+        assertEquals(invalid, dlqMessages.get(0).getPayload());
+        assertEquals("Invalid productId: 0", dlqMessages.get(0).getHeaders().get("x-exception-message"));
+        assertEquals(duplicate, dlqMessages.get(1).getPayload());
+        assertEquals("Duplicate key", dlqMessages.get(1).getHeaders().get("x-exception-message"));
+    }
+
+    @Test
+    void retryOfFailedBatchOnlyWritesWhatIsLeft() {
+        Event<Integer, Product> first = createEvent(1);
+        Event<Integer, Product> second = createEvent(2);
+        when(batchWriter.write(anyList(), any())).thenAnswer(invocation -> {
+            List<Event<Integer, Product>> events = invocation.getArgument(0);
+            Consumer<Event<Integer, Product>> applied = invocation.getArgument(1);
+            writes.add(new ArrayList<>(events));
+            if (writes.size() == 1) {
+                // The first segment is written before the connection is lost
+                applied.accept(events.get(0));
+                return Mono.error(new IllegalStateException("Connection lost"));
+            }
+            events.forEach(applied);
+            return Mono.just(List.of());
+        });
+
+        assertThrows(IllegalStateException.class, () -> batchMessageProcessor.accept(asList(first, second)));
+        batchMessageProcessor.accept(asList(first, second));
+
+        assertEquals(List.of(asList(first, second), List.of(second)), writes);
+        assertEquals(0, dlqMessages.size());
+    }
+
+    private Event<Integer, Product> createEvent(int productId) {
+        return new Event(CREATE, productId, new Product(productId, "name", 1, null));
+    }
+}
@@ -0,0 +1,73 @@
+package com.mkurt.productservice;
+
+import com.mkurt.api.core.product.Product;
+import com.mkurt.api.event.Event;
+import com.mkurt.productservice.persistence.ProductRepository;
+import com.mkurt.util.messaging.EventCoalescer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static com.mkurt.api.event.Event.Type.DELETE;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {"eureka.client.enabled=false", "spring.cloud.config.enabled=false",
+		"spring.cloud.function.definition=coalescingMessageProcessor"})
+class CoalescingConsumerTests extends MongoDbTestBase {
+
+	@Autowired
+	private ProductRepository repository;
+
+	@Autowired
+	@Qualifier("coalescingMessageProcessor")
+	private Consumer<Message<Event<Integer, Product>>> coalescingMessageProcessor;
+
+	@BeforeEach
+	void setupDb() {
+		repository.deleteAll().block();
+	}
+
+	@Test
+	void coalesceEvents() throws InterruptedException {
+
+		Event<Integer, Product> create = new Event(CREATE, 1, new Product(1, "Name 1", 1, "SA"));
+		Event<Integer, Product> delete = new Event(DELETE, 1, null);
+		Event<Integer, Product> recreate = new Event(CREATE, 1, new Product(1, "New name", 1, "SA"));
+		Event<Integer, Product> duplicate = new Event(CREATE, 1, new Product(1, "Duplicate", 1, "SA"));
+		assertEquals(asList(delete, recreate), EventCoalescer.coalesce(asList(create, create, delete, recreate)));
+		assertEquals(asList(create, recreate), EventCoalescer.coalesce(asList(create, recreate)));
+
+		// Counted down as the messages are acknowledged, i.e. once they are processed
+		CountDownLatch created = new CountDownLatch(1);
+		sendCoalescedEvent(create, created);
+		assertTrue(created.await(5, TimeUnit.SECONDS));
+
+		// The duplicate create would fail, but it is superseded by the delete
+		CountDownLatch processed = new CountDownLatch(3);
+		sendCoalescedEvent(duplicate, processed);
+		sendCoalescedEvent(delete, processed);
+		sendCoalescedEvent(recreate, processed);
+
+		assertTrue(processed.await(5, TimeUnit.SECONDS));
+		assertEquals("New name", repository.findByProductId(1).block().getName());
+	}
+
+	private void sendCoalescedEvent(Event<Integer, Product> event, CountDownLatch processed) {
+		coalescingMessageProcessor.accept(MessageBuilder.withPayload(event)
+				.setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) processed::countDown)
+				.build());
+	}
+}
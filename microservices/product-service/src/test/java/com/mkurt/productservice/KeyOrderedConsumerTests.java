@@ -0,0 +1,67 @@
+package com.mkurt.productservice;
+
+import com.mkurt.api.core.product.Product;
+import com.mkurt.api.event.Event;
+import com.mkurt.productservice.persistence.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static com.mkurt.api.event.Event.Type.DELETE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {"eureka.client.enabled=false", "spring.cloud.config.enabled=false",
+		"spring.cloud.function.definition=keyOrderedMessageProcessor"})
+class KeyOrderedConsumerTests extends MongoDbTestBase {
+
+	@Autowired
+	private ProductRepository repository;
+
+	@Autowired
+	@Qualifier("keyOrderedMessageProcessor")
+	private Consumer<Message<Event<Integer, Product>>> keyOrderedMessageProcessor;
+
+	@BeforeEach
+	void setupDb() {
+		repository.deleteAll().block();
+	}
+
+	@Test
+	void processEventsInKeyOrder() throws InterruptedException {
+
+		// Counted down as the messages are acknowledged, i.e. once they are processed
+		CountDownLatch processed = new CountDownLatch(14);
+
+		for (int productId = 1; productId <= 10; productId++) {
+			sendKeyOrderedEvent(new Event(CREATE, productId, new Product(productId, "Name " + productId, productId, "SA")), processed);
+		}
+		sendKeyOrderedEvent(new Event(DELETE, 1, null), processed);
+		sendKeyOrderedEvent(new Event(CREATE, 1, new Product(1, "New name", 1, "SA")), processed);
+		sendKeyOrderedEvent(Event.deleteRange(5, 10), processed);
+		sendKeyOrderedEvent(new Event(CREATE, 11, new Product(11, "Name 11", 11, "SA")), processed);
+
+		assertTrue(processed.await(5, TimeUnit.SECONDS));
+		assertEquals("New name", repository.findByProductId(1).block().getName());
+		assertNull(repository.findByProductId(5).block());
+		assertEquals(5, (long)repository.count().block());
+	}
+
+	private void sendKeyOrderedEvent(Event<Integer, Product> event, CountDownLatch processed) {
+		keyOrderedMessageProcessor.accept(MessageBuilder.withPayload(event)
+				.setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) processed::countDown)
+				.build());
+	}
+}
@@ -2,8 +2,12 @@ package com.mkurt.productservice;
 
 import com.mkurt.api.core.product.Product;
 import com.mkurt.api.event.Event;
+import com.mkurt.api.exception.EventProcessingException;
 import com.mkurt.api.exception.InvalidInputException;
 import com.mkurt.productservice.persistence.ProductRepository;
+import com.mkurt.productservice.service.ProductBatchWriter;
+import com.mkurt.util.messaging.FailedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,10 +16,15 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.mkurt.api.event.Event.Type.CREATE;
 import static com.mkurt.api.event.Event.Type.DELETE;
+import static java.util.Arrays.asList;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
@@ -37,6 +46,12 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 	@Qualifier("messageProcessor")
 	private Consumer<Event<Integer, Product>> messageProcessor;
 
+	@Autowired
+	private ProductBatchWriter batchWriter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
 	@BeforeEach
 	void setupDb() {
 		repository.deleteAll().block();
@@ -91,6 +106,115 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 		sendDeleteProductEvent(productId);
 	}
 
+	@Test
+	void deleteProductsInBulk() {
+
+		for (int productId = 1; productId <= 5; productId++) {
+			sendCreateProductEvent(productId);
+		}
+
+		messageProcessor.accept(Event.deleteList(asList(1, 3)));
+		assertNull(repository.findByProductId(1).block());
+		assertNotNull(repository.findByProductId(2).block());
+		assertNull(repository.findByProductId(3).block());
+
+		// Both bounds of the range are included
+		messageProcessor.accept(Event.deleteRange(2, 4));
+		assertEquals(1, (long)repository.count().block());
+		assertNotNull(repository.findByProductId(5).block());
+
+		// Same limit as the batch read
+		String tooManyIds = IntStream.rangeClosed(1, 1001).mapToObj(String::valueOf).collect(Collectors.joining(","));
+		client.delete()
+				.uri("/product/batch?productIds=" + tooManyIds)
+				.exchange()
+				.expectStatus().isEqualTo(UNPROCESSABLE_ENTITY)
+				.expectBody()
+				.jsonPath("$.message").isEqualTo("Invalid number of productIds: 1001, expected 1 to 1000");
+	}
+
+	@Test
+	void getProductsByIds() {
+
+		sendCreateProductEvent(1);
+		sendCreateProductEvent(3);
+
+		// In the order asked for, without duplicates, missing products are listed instead of failing the request
+		getAndVerifyProduct("?productIds=3,2,1,3", OK)
+				.jsonPath("$.products.length()").isEqualTo(2)
+				.jsonPath("$.products[0].productId").isEqualTo(3)
+				.jsonPath("$.products[1].productId").isEqualTo(1)
+				.jsonPath("$.missingProductIds.length()").isEqualTo(1)
+				.jsonPath("$.missingProductIds[0]").isEqualTo(2);
+
+		getAndVerifyProduct("?productIds=1,0", UNPROCESSABLE_ENTITY)
+				.jsonPath("$.message").isEqualTo("Invalid productId: 0");
+	}
+
+	@Test
+	void writeEventsInBulk() {
+
+		sendCreateProductEvent(1);
+
+		List<Event<Integer, Product>> events = asList(
+				new Event(CREATE, 1, new Product(1, "Duplicate", 1, "SA")),
+				new Event(CREATE, 2, new Product(2, "Name 2", 2, "SA")),
+				new Event(CREATE, 3, new Product(3, "Name 3", 3, "SA")),
+				new Event(DELETE, 2, null),
+				new Event(CREATE, 4, new Product(4, "Name 4", 4, "SA")),
+				Event.deleteRange(3, 3));
+
+		// Only the duplicate fails, the events of the same product are applied in order
+		List<Event<Integer, Product>> applied = new ArrayList<>();
+		List<FailedEvent<Integer, Product>> failures = batchWriter.write(events, applied::add).block();
+		assertEquals(1, failures.size());
+		assertEquals(1, failures.get(0).getEvent().getKey());
+		assertEquals(events.subList(1, events.size()), applied);
+
+		assertEquals("Name 1", repository.findByProductId(1).block().getName());
+		assertNull(repository.findByProductId(2).block());
+		assertNull(repository.findByProductId(3).block());
+		assertEquals(0, repository.findByProductId(4).block().getVersion());
+		assertEquals(2, (long)repository.count().block());
+	}
+
+	@Test
+	void createProductsInBatch() {
+
+		sendCreateProductEvent(2);
+
+		List<Product> products = asList(
+				new Product(1, "Name 1", 1, "SA"),
+				new Product(2, "Duplicate", 2, "SA"),
+				new Product(3, "Name 3", 3, "SA"));
+
+		// The duplicate fails the event, the other products are created anyway
+		assertThrows(EventProcessingException.class,
+				() -> messageProcessor.accept(Event.createBatchForKeys(asList(1, 2, 3), products)));
+
+		assertEquals("Name 1", repository.findByProductId(1).block().getName());
+		assertEquals("Name 2", repository.findByProductId(2).block().getName());
+		assertEquals("Name 3", repository.findByProductId(3).block().getName());
+	}
+
+	@Test
+	void skipRedeliveredEvents() {
+
+		Event<Integer, Product> createEvent = new Event(CREATE, 1, new Product(1, "Name 1", 1, "SA"));
+		Event<Integer, Product> deleteEvent = new Event(DELETE, 1, null);
+		double skipped = meterRegistry.counter("events.duplicates.skipped", "consumer", "products").count();
+
+		// Redelivered events have the same eventId, they are skipped instead of failing or deleting once more
+		messageProcessor.accept(createEvent);
+		messageProcessor.accept(createEvent);
+		messageProcessor.accept(deleteEvent);
+		messageProcessor.accept(deleteEvent);
+		messageProcessor.accept(createEvent);
+
+		assertNull(repository.findByProductId(1).block());
+		assertEquals(skipped + 3, meterRegistry.counter("events.duplicates.skipped", "consumer", "products").count());
+	}
+
 	@Test
 	void getProductInvalidParameterString() {
 
@@ -1,11 +1,24 @@
 package com.mkurt.recommendationservice.persistence;
 
-import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.data.domain.Range;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
 
 @Repository
-public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String> {
+public interface RecommendationRepository extends ReactiveMongoRepository<RecommendationEntity, String> {
 
     Flux<RecommendationEntity> findByProductId(int productId);
+
+    // One $in query, sorted like the prod-rec-id index, i.e. the index serves both the filter and the sort
+    Flux<RecommendationEntity> findByProductIdInOrderByProductIdAscRecommendationIdAsc(Collection<Integer> productIds);
+
+    // Derived delete queries are executed as one deleteMany, they return the number of deleted documents
+    Mono<Long> deleteByProductIdIn(Collection<Integer> productIds);
+
+    // Use Range.closed() to include the bounds, Between with two plain values excludes them
+    Mono<Long> deleteByProductIdBetween(Range<Integer> productIds);
 }
@@ -4,24 +4,81 @@ import com.mkurt.api.core.recommendation.Recommendation;
 import com.mkurt.api.core.recommendation.RecommendationService;
 import com.mkurt.api.event.Event;
 import com.mkurt.api.exception.EventProcessingException;
+import com.mkurt.api.exception.InvalidInputException;
+import com.mkurt.util.messaging.AckTracker;
+import com.mkurt.util.messaging.Acknowledgements;
+import com.mkurt.util.messaging.DeadLetters;
+import com.mkurt.util.messaging.DuplicateEventFilter;
+import com.mkurt.util.messaging.EventCoalescer;
+import com.mkurt.util.messaging.KeyOrderedDispatcher;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Configuration
 public class MessageProcessorConfig {
 
     private final static Logger LOG = LoggerFactory.getLogger(MessageProcessorConfig.class);
 
+    // The binding that failed Kafka messages of the reactive and key ordered consumers are sent to
+    private static final String DLQ_BINDING = "recommendationsDlq";
+
     private final RecommendationService recommendationService;
+    private final DeadLetters deadLetters;
+    private final int concurrency;
+    private final int lanes;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final long backOffInitialInterval;
+    private final long backOffMaxInterval;
+    private final DuplicateEventFilter duplicateFilter;
+
+    // The last write per key and the last barrier, see processInKeyOrder()
+    private final Map<Object, Mono<Void>> lastWrites = new ConcurrentHashMap<>();
+    private final AtomicReference<Mono<Void>> lastBarrier = new AtomicReference<>(Mono.empty());
 
     @Autowired
-    public MessageProcessorConfig(RecommendationService recommendationService) {
+    public MessageProcessorConfig(RecommendationService recommendationService,
+                                  StreamBridge streamBridge,
+                                  @Value("${app.messageProcessor.concurrency:32}") int concurrency,
+                                  @Value("${app.messageProcessor.lanes:8}") int lanes,
+                                  @Value("${app.messageProcessor.maxInFlight:64}") int maxInFlight,
+                                  @Value("${app.messageProcessor.maxAttempts:3}") int maxAttempts,
+                                  @Value("${app.messageProcessor.backOffInitialInterval:500}") long backOffInitialInterval,
+                                  @Value("${app.messageProcessor.backOffMaxInterval:1000}") long backOffMaxInterval,
+                                  @Value("${app.messageProcessor.duplicates.maxEvents:100000}") int maxEvents,
+                                  @Value("${app.messageProcessor.duplicates.falsePositiveRate:0.01}") double falsePositiveRate,
+                                  MeterRegistry meterRegistry) {
         this.recommendationService = recommendationService;
+        this.deadLetters = new DeadLetters(DLQ_BINDING, streamBridge::send);
+        this.concurrency = concurrency;
+        this.lanes = lanes;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.backOffInitialInterval = backOffInitialInterval;
+        this.backOffMaxInterval = backOffMaxInterval;
+        this.duplicateFilter = new DuplicateEventFilter("recommendations", maxEvents, falsePositiveRate, meterRegistry);
     }
 
 
@@ -32,27 +89,190 @@ public class MessageProcessorConfig {
 
             LOG.info("Process message created at {}...", event.getEventCreatedAt());
 
-            switch (event.getEventType()) {
+            process(event).block();
+
+            LOG.info("Message processing done!");
+        };
+    }
+
+    /**
+     * Non-blocking variant of messageProcessor, selected by the reactive_consumer profile. Up to concurrency events
+     * are written at the same time, events with the same key are written one after the other, in the order they
+     * arrived. The binding uses manual acknowledgement: a message is acknowledged once its write is done and all
+     * earlier messages are acknowledged, i.e. in the order the messages arrived.
+     *
+     * An event for more than one product, e.g. a DELETE_LIST or DELETE_RANGE event, is a barrier: it waits for all
+     * earlier writes, and all later writes wait for it, see processInKeyOrder().
+     *
+     * A failed write is retried like the binder would, see maxAttempts. If it still fails, a RabbitMQ message is
+     * rejected without requeue, which moves it to the DLQ bound to the queue. A Kafka message is sent to the DLQ
+     * topic through the recommendationsDlq binding before it is acknowledged.
+     */
+    @Bean
+    public Function<Flux<Message<Event<Integer, Recommendation>>>, Mono<Void>> reactiveMessageProcessor() {
+
+        return messages -> messages
+                .flatMapSequential(message -> processInKeyOrder(message.getPayload())
+                        .then(Mono.just(new Outcome(message, null)))
+                        .onErrorResume(error -> Mono.just(new Outcome(message, error))), concurrency)
+                // An outcome that can not be acknowledged must not end the flux, the broker redelivers the message
+                .concatMap(outcome -> acknowledge(outcome)
+                        .onErrorResume(error -> {
+                            LOG.warn("Failed to acknowledge a message: {}", error.toString());
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    /**
+     * Key ordered variant of messageProcessor, selected by the key_ordered_consumer profile. Events for different
+     * products are processed at the same time on a number of lanes, events for the same product one after the other,
+     * see KeyOrderedDispatcher. A message is acknowledged once it and all earlier messages of its partition are done.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.cloud.function.definition", havingValue = "keyOrderedMessageProcessor")
+    public Consumer<Message<Event<Integer, Recommendation>>> keyOrderedMessageProcessor(KeyOrderedDispatcher dispatcher) {
+
+        Consumer<Event<Integer, Recommendation>> processor = messageProcessor();
+        return message -> dispatcher.dispatch(message, KeyOrderedDispatcher.orderingKey(message.getPayload()),
+                () -> processor.accept(message.getPayload()));
+    }
 
-                case CREATE:
-                    Recommendation recommendation = event.getData();
-                    LOG.info("Create recommendation with ID: {}/{}", recommendation.getProductId(), recommendation.getRecommendationId());
-                    recommendationService.createRecommendation(recommendation).block();
-                    break;
+    /**
+     * Coalescing variant of keyOrderedMessageProcessor, selected by the coalescing_consumer profile. The events of a
+     * product are held for a few milliseconds, and only their net effect is processed, see EventCoalescer.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.cloud.function.definition", havingValue = "coalescingMessageProcessor")
+    public Consumer<Message<Event<Integer, Recommendation>>> coalescingMessageProcessor(EventCoalescer<Integer, Recommendation> coalescer) {
+        return coalescer::add;
+    }
 
-                case DELETE:
-                    int productId = event.getKey();
-                    LOG.info("Delete recommendations with ProductID: {}", productId);
-                    recommendationService.deleteRecommendations(productId).block();
-                    break;
+    @Bean
+    @ConditionalOnProperty(name = "spring.cloud.function.definition", havingValue = "coalescingMessageProcessor")
+    public EventCoalescer<Integer, Recommendation> eventCoalescer(@Value("${app.messageProcessor.coalescing.windowMs:5}") long windowMs,
+                                                         @Value("${app.messageProcessor.coalescing.maxPending:256}") int maxPending) {
 
-                default:
-                    String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
-                    LOG.warn(errorMessage);
-                    throw new EventProcessingException(errorMessage);
+        return new EventCoalescer<>("recommendations", windowMs, maxPending, createDispatcher(), messageProcessor());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "spring.cloud.function.definition", havingValue = "keyOrderedMessageProcessor")
+    public KeyOrderedDispatcher keyOrderedDispatcher() {
+        return createDispatcher();
+    }
+
+    private KeyOrderedDispatcher createDispatcher() {
+        return new KeyOrderedDispatcher("recommendations", lanes, maxInFlight, maxAttempts, backOffInitialInterval, backOffMaxInterval,
+                new AckTracker(deadLetters::send));
+    }
+
+    /**
+     * Shared by all consumers, an event that already has been processed is skipped.
+     */
+    private Mono<Void> process(Event<Integer, Recommendation> event) {
+
+        if (duplicateFilter.isDuplicate(event)) {
+            return Mono.empty();
+        }
+        return write(event).doOnSuccess(v -> duplicateFilter.markProcessed(event));
+    }
+
+    private Mono<Void> write(Event<Integer, Recommendation> event) {
+
+        switch (event.getEventType()) {
+
+            case CREATE:
+                Recommendation recommendation = event.getData();
+                LOG.info("Create recommendation with ID: {}/{}", recommendation.getProductId(), recommendation.getRecommendationId());
+                return recommendationService.createRecommendation(recommendation).then();
+
+            case CREATE_BATCH:
+                List<Recommendation> recommendations = event.getItems();
+                LOG.info("Create {} recommendations with ProductID: {}", recommendations.size(), event.getKey());
+                return recommendationService.createRecommendations(recommendations).then();
+
+            case DELETE:
+                int productId = event.getKey();
+                LOG.info("Delete recommendations with ProductID: {}", productId);
+                return recommendationService.deleteRecommendations(productId);
+
+            case DELETE_LIST:
+                List<Integer> productIds = event.getKeys();
+                LOG.info("Delete recommendations for {} products", productIds.size());
+                return recommendationService.deleteRecommendationsForProducts(productIds);
+
+            case DELETE_RANGE:
+                LOG.info("Delete recommendations with ProductID {} to {}", event.getKeys().get(0), event.getKeys().get(1));
+                return recommendationService.deleteRecommendationsForProductRange(event.getKeys().get(0), event.getKeys().get(1));
+
+            default:
+                String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, CREATE_BATCH, DELETE, DELETE_LIST or DELETE_RANGE event";
+                LOG.warn(errorMessage);
+                throw new EventProcessingException(errorMessage);
+        }
+    }
+
+    /**
+     * The write of an event waits for the write of the previous event with the same key, whatever its outcome.
+     * An event without an ordering key, see KeyOrderedDispatcher.orderingKey(), is a barrier: it waits for the last
+     * write of every key and for the previous barrier, and the writes of later events wait for it.
+     * Only called from the operator that maps the incoming messages, i.e. from one thread at a time.
+     */
+    private Mono<Void> processInKeyOrder(Event<Integer, Recommendation> event) {
+
+        Object orderingKey = KeyOrderedDispatcher.orderingKey(event);
+        if (orderingKey == null) {
+            List<Mono<Void>> previousWrites = new ArrayList<>(lastWrites.values());
+            previousWrites.add(lastBarrier.get());
+            Mono<Void> barrier = retried(Flux.fromIterable(previousWrites)
+                    .flatMap(previous -> previous.onErrorResume(error -> Mono.empty()))
+                    .then(Mono.defer(() -> process(event))));
+
+            // The writes of the keys are part of the barrier now
+            lastWrites.clear();
+            lastBarrier.set(barrier);
+            return barrier.doFinally(signal -> lastBarrier.compareAndSet(barrier, Mono.empty()));
+        }
+
+        Mono<Void> previous = lastWrites.getOrDefault(orderingKey, lastBarrier.get());
+
+        Mono<Void> write = retried(previous
+                .onErrorResume(error -> Mono.empty())
+                .then(Mono.defer(() -> process(event))));
+        lastWrites.put(orderingKey, write);
+
+        return write.doFinally(signal -> lastWrites.remove(orderingKey, write));
+    }
+
+    private Mono<Void> retried(Mono<Void> write) {
+        return write
+                .retryWhen(Retry.backoff(maxAttempts - 1, Duration.ofMillis(backOffInitialInterval))
+                        .maxBackoff(Duration.ofMillis(backOffMaxInterval))
+                        .filter(error -> !(error instanceof InvalidInputException || error instanceof EventProcessingException))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .cache();
+    }
+
+    private Mono<Void> acknowledge(Outcome outcome) {
+
+        return Mono.fromRunnable(() -> {
+            try {
+                Acknowledgements.acknowledge(outcome.message, outcome.error, deadLetters::send);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
             }
+        });
+    }
 
-            LOG.info("Message processing done!");
-        };
+    private static class Outcome {
+
+        private final Message<?> message;
+        private final Throwable error;
+
+        Outcome(Message<?> message, Throwable error) {
+            this.message = message;
+            this.error = error;
+        }
     }
 }
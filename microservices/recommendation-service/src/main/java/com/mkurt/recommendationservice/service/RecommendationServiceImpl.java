@@ -6,33 +6,55 @@ import com.mkurt.api.exception.InvalidInputException;
 import com.mkurt.recommendationservice.persistence.RecommendationEntity;
 import com.mkurt.recommendationservice.persistence.RecommendationRepository;
 import com.mkurt.util.http.ServiceUtil;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.logging.Level;
 
 import static java.util.logging.Level.FINE;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
 
 @RestController
 public class RecommendationServiceImpl implements RecommendationService {
 
     private static final Logger LOG = LoggerFactory.getLogger(RecommendationServiceImpl.class);
 
+    private static final int MAX_PRODUCT_IDS = 1000;
+
+    // The fields that can be selected, by the entity field they are read from
+    private static final Map<String, String> SELECTABLE_FIELDS = Map.of(
+            "recommendationId", "recommendationId",
+            "author", "author",
+            "rate", "rating",
+            "content", "content");
+
     private final RecommendationRepository repository;
     private final RecommendationMapper mapper;
     private final ServiceUtil serviceUtil;
+    private final ReactiveMongoTemplate template;
 
     @Autowired
-    public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper, ServiceUtil serviceUtil) {
+    public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper, ServiceUtil serviceUtil,
+                                     ReactiveMongoTemplate template) {
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
+        this.template = template;
     }
 
     @Override
@@ -53,6 +75,60 @@ public class RecommendationServiceImpl implements RecommendationService {
                 .map(mapper::entityToApi);
     }
 
+    /**
+     * Writes all entities with one unordered insertMany command instead of one save per entity. Unordered means that
+     * an entity that fails, e.g. a duplicate, does not stop the others from being written, i.e. a batch is not written
+     * all or nothing. If some entities fail, the error names them and tells how many of the others were written, e.g.
+     * a redelivered batch writes what is missing and reports the rest as duplicates.
+     */
+    @Override
+    public Flux<Recommendation> createRecommendations(List<Recommendation> body) {
+
+        body.forEach(recommendation -> {
+            if (recommendation.getProductId() < 1) {
+                throw new InvalidInputException("Invalid productId: " + recommendation.getProductId());
+            }
+        });
+
+        LOG.debug("createRecommendations: creates {} recommendations", body.size());
+
+        List<Document> documents = mapper.apiListToEntityList(body).stream()
+                .map(this::toDocument)
+                .collect(Collectors.toList());
+
+        return template.getCollection(template.getCollectionName(RecommendationEntity.class))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+                .onErrorMap(MongoBulkWriteException.class, ex -> failedItemsError(body, ex))
+                .thenMany(Flux.fromIterable(body));
+    }
+
+    // The same document as insert() writes, including the initial version
+    private Document toDocument(RecommendationEntity entity) {
+        Document document = new Document();
+        template.getConverter().write(entity, document);
+        document.putIfAbsent("version", 0);
+        return document;
+    }
+
+    private Throwable failedItemsError(List<Recommendation> body, MongoBulkWriteException ex) {
+        // A batch can hold the recommendations of many products, e.g. the ones of a partition
+        List<String> failedIds = ex.getWriteErrors().stream()
+                .map(error -> body.get(error.getIndex()))
+                .map(recommendation -> recommendation.getProductId() + "/" + recommendation.getRecommendationId())
+                .collect(Collectors.toList());
+        boolean onlyDuplicates = ex.getWriteErrors().stream()
+                .allMatch(error -> ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY);
+
+        LOG.warn("createRecommendations: {} of {} recommendations written, failed productId/recommendationIds: {}",
+                ex.getWriteResult().getInsertedCount(), body.size(), failedIds);
+
+        if (!onlyDuplicates) {
+            return ex;
+        }
+        return new InvalidInputException("Duplicate keys in a batch of recommendations, Product Id/Recommendation Ids: " + failedIds +
+                ", the other " + ex.getWriteResult().getInsertedCount() + " recommendations are written");
+    }
+
     @Override
     public Flux<Recommendation> getRecommendations(int productId) {
 
@@ -68,6 +144,55 @@ public class RecommendationServiceImpl implements RecommendationService {
                 .map(this::setServiceAddress);
     }
 
+    /**
+     * The query includes only the selected fields in its projection, i.e. MongoDB returns documents without the
+     * other fields, e.g. without the content.
+     */
+    @Override
+    public Flux<Recommendation> getRecommendations(int productId, List<String> fields) {
+
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        Query query = new Query(where("productId").is(productId));
+        query.fields().include("productId");
+        fields.forEach(field -> {
+            String entityField = SELECTABLE_FIELDS.get(field);
+            if (entityField == null) {
+                throw new InvalidInputException("Invalid field: " + field + ", expected any of " + SELECTABLE_FIELDS.keySet());
+            }
+            query.fields().include(entityField);
+        });
+
+        LOG.info("Will get the fields {} of the recommendations for product with id = {}", fields, productId);
+
+        return template.find(query, RecommendationEntity.class)
+                .log(LOG.getName(), FINE)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress);
+    }
+
+    @Override
+    public Flux<Recommendation> getRecommendationsForProducts(List<Integer> productIds) {
+
+        if (productIds.isEmpty() || productIds.size() > MAX_PRODUCT_IDS) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + MAX_PRODUCT_IDS);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        LOG.info("Will get recommendations for {} products", productIds.size());
+
+        return repository.findByProductIdInOrderByProductIdAscRecommendationIdAsc(productIds)
+                .log(LOG.getName(), FINE)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress);
+    }
+
     private Recommendation setServiceAddress(Recommendation e) {
         e.setServiceAddress(serviceUtil.getServiceAddress());
         return e;
@@ -82,4 +207,35 @@ public class RecommendationServiceImpl implements RecommendationService {
         LOG.debug("deleteRecommendations: tries to delete recommendations for the product with productId: {}", productId);
         return repository.deleteAll(repository.findByProductId(productId));
     }
+
+    @Override
+    public Mono<Void> deleteRecommendationsForProducts(List<Integer> productIds) {
+
+        if (productIds.isEmpty() || productIds.size() > MAX_PRODUCT_IDS) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + MAX_PRODUCT_IDS);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+        LOG.debug("deleteRecommendationsForProducts: tries to delete recommendations for {} products", productIds.size());
+
+        return repository.deleteByProductIdIn(productIds)
+                .doOnNext(count -> LOG.debug("deleteRecommendationsForProducts: deleted {} recommendations", count))
+                .then();
+    }
+
+    @Override
+    public Mono<Void> deleteRecommendationsForProductRange(int fromProductId, int toProductId) {
+
+        if (fromProductId < 1 || toProductId < fromProductId) {
+            throw new InvalidInputException("Invalid productId range: " + fromProductId + " to " + toProductId);
+        }
+        LOG.debug("deleteRecommendationsForProductRange: tries to delete recommendations for productId {} to {}", fromProductId, toProductId);
+
+        return repository.deleteByProductIdBetween(Range.closed(fromProductId, toProductId))
+                .doOnNext(count -> LOG.debug("deleteRecommendationsForProductRange: deleted {} recommendations", count))
+                .then();
+    }
 }
@@ -0,0 +1,115 @@
+package com.mkurt.recommendationservice;
+
+import com.mkurt.api.core.recommendation.Recommendation;
+import com.mkurt.api.core.recommendation.RecommendationService;
+import com.mkurt.api.event.Event;
+import com.mkurt.recommendationservice.service.MessageProcessorConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReactiveMessageProcessorTests {
+
+    private final RecommendationService recommendationService = mock(RecommendationService.class);
+    private final StreamBridge streamBridge = mock(StreamBridge.class);
+
+    private final Function<Flux<Message<Event<Integer, Recommendation>>>, Mono<Void>> reactiveMessageProcessor = new MessageProcessorConfig(
+            recommendationService, streamBridge, 8, 8, 64, 1, 500, 1000, 1000, 0.01, new SimpleMeterRegistry())
+            .reactiveMessageProcessor();
+
+    @Test
+    void messagesAreAcknowledgedInOrder() {
+        List<Message<?>> dlqMessages = new ArrayList<>();
+        when(streamBridge.send(anyString(), any())).thenAnswer(invocation -> dlqMessages.add(invocation.getArgument(1)));
+        when(recommendationService.createRecommendation(any())).thenAnswer(invocation -> {
+            Recommendation recommendation = invocation.getArgument(0);
+            return recommendation.getProductId() == 2 ?
+                    Mono.error(new IllegalStateException("Write failed")) :
+                    Mono.just(recommendation);
+        });
+
+        List<Integer> acknowledged = new ArrayList<>();
+        Message<Event<Integer, Recommendation>> failingAck = MessageBuilder.withPayload(createEvent(3))
+                .setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) () -> {
+                    throw new IllegalStateException("Consumer closed");
+                })
+                .build();
+
+        reactiveMessageProcessor.apply(Flux.just(
+                        createMessage(1, acknowledged), createMessage(2, acknowledged), failingAck, createMessage(4, acknowledged)))
+                .block(Duration.ofSeconds(5));
+
+        // The failed write is sent to the DLQ and acknowledged, a failed acknowledgement does not stop the others
+        assertEquals(List.of(1, 2, 4), acknowledged);
+        assertEquals(1, dlqMessages.size());
+        assertEquals("Write failed", dlqMessages.get(0).getHeaders().get("x-exception-message"));
+    }
+
+    @Test
+    void listDeleteIsABarrier() {
+        Sinks.Empty<Void> firstWrite = Sinks.empty();
+        when(recommendationService.createRecommendation(any())).thenAnswer(invocation -> {
+            Recommendation recommendation = invocation.getArgument(0);
+            return recommendation.getProductId() == 1 ?
+                    firstWrite.asMono().thenReturn(recommendation) :
+                    Mono.just(recommendation);
+        });
+        when(recommendationService.deleteRecommendationsForProducts(any())).thenReturn(Mono.empty());
+
+        List<Integer> acknowledged = new ArrayList<>();
+        reactiveMessageProcessor.apply(Flux.just(
+                        createMessage(1, acknowledged),
+                        MessageBuilder.withPayload(Event.<Integer, Recommendation>deleteList(asList(1, 2)))
+                                .setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) () -> acknowledged.add(0))
+                                .build(),
+                        createMessage(3, acknowledged)))
+                .subscribe();
+
+        // Neither the list delete nor the create of another product after it starts before the first write is done
+        verify(recommendationService, never()).deleteRecommendationsForProducts(any());
+        verify(recommendationService, never()).createRecommendation(argThat(recommendation -> recommendation.getProductId() == 3));
+        assertEquals(List.of(), acknowledged);
+
+        firstWrite.tryEmitEmpty();
+
+        InOrder inOrder = inOrder(recommendationService);
+        inOrder.verify(recommendationService).deleteRecommendationsForProducts(asList(1, 2));
+        inOrder.verify(recommendationService).createRecommendation(argThat(recommendation -> recommendation.getProductId() == 3));
+        assertEquals(List.of(1, 0, 3), acknowledged);
+    }
+
+    private Message<Event<Integer, Recommendation>> createMessage(int productId, List<Integer> acknowledged) {
+        return MessageBuilder.withPayload(createEvent(productId))
+                .setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) () -> acknowledged.add(productId))
+                .build();
+    }
+
+    private Event<Integer, Recommendation> createEvent(int productId) {
+        return new Event(CREATE, productId, new Recommendation(productId, 1, "a", 1, "c", null));
+    }
+}
@@ -10,14 +10,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static com.mkurt.api.event.Event.Type.CREATE;
 import static com.mkurt.api.event.Event.Type.DELETE;
+import static java.util.Arrays.asList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
@@ -38,6 +46,10 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 	@Qualifier("messageProcessor")
 	private Consumer<Event<Integer, Recommendation>> messageProcessor;
 
+	@Autowired
+	@Qualifier("reactiveMessageProcessor")
+	private Function<Flux<Message<Event<Integer, Recommendation>>>, Mono<Void>> reactiveMessageProcessor;
+
 	@BeforeEach
 	void setupDb() {
 		repository.deleteAll().block();
@@ -61,6 +73,60 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 				.jsonPath("$[2].recommendationId").isEqualTo(3);
 	}
 
+	@Test
+	void createRecommendationsInBatch() {
+
+		int productId = 1;
+
+		List<Recommendation> recommendations = asList(
+				new Recommendation(productId, 1, "Author 1", 1, "Content 1", "SA"),
+				new Recommendation(productId, 2, "Author 2", 2, "Content 2", "SA"));
+		messageProcessor.accept(Event.createBatch(productId, recommendations));
+
+		assertEquals(2, (long)repository.findByProductId(productId).count().block());
+	}
+
+	@Test
+	void createRecommendationsInBatchWritesAllButDuplicates() {
+
+		int productId = 1;
+
+		sendCreateRecommendationEvent(productId, 2);
+
+		List<Recommendation> recommendations = asList(
+				new Recommendation(productId, 1, "Author 1", 1, "Content 1", "SA"),
+				new Recommendation(productId, 2, "Author 2", 2, "Content 2", "SA"),
+				new Recommendation(productId, 3, "Author 3", 3, "Content 3", "SA"));
+
+		InvalidInputException thrown = assertThrows(
+				InvalidInputException.class,
+				() -> messageProcessor.accept(Event.createBatch(productId, recommendations)));
+		assertEquals("Duplicate keys in a batch of recommendations, Product Id/Recommendation Ids: [1/2], " +
+				"the other 2 recommendations are written", thrown.getMessage());
+
+		assertEquals(3, (long)repository.findByProductId(productId).count().block());
+		assertEquals(0, repository.findByProductId(productId).blockFirst().getVersion());
+	}
+
+	@Test
+	void processEventsReactively() {
+
+		Flux<Message<Event<Integer, Recommendation>>> messages = Flux.range(1, 20)
+				.flatMapIterable(productId -> asList(
+						new Event(CREATE, productId, new Recommendation(productId, 1, "Author", 1, "Content", "SA")),
+						new Event(CREATE, productId, new Recommendation(productId, 1, "Author", 1, "Content", "SA")),
+						new Event(CREATE, productId, new Recommendation(productId, 2, "Author", 2, "Content", "SA")),
+						new Event(DELETE, productId, null),
+						new Event(CREATE, productId, new Recommendation(productId, 3, "Author", 3, "Content", "SA"))))
+				.map(event -> MessageBuilder.withPayload((Event<Integer, Recommendation>) event).build());
+
+		// The duplicates fail without stopping the stream, the events of each product are applied in order
+		reactiveMessageProcessor.apply(messages).block();
+
+		assertEquals(20, (long)repository.count().block());
+		assertEquals(3, repository.findByProductId(1).blockFirst().getRecommendationId());
+	}
+
 	@Test
 	void duplicateError() {
 
@@ -95,6 +161,64 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 		sendDeleteRecommendationEvent(productId);
 	}
 
+	@Test
+	void getRecommendationsForProducts() {
+
+		sendCreateRecommendationEvent(3, 2);
+		sendCreateRecommendationEvent(1, 2);
+		sendCreateRecommendationEvent(2, 1);
+		sendCreateRecommendationEvent(3, 1);
+		sendCreateRecommendationEvent(1, 1);
+
+		// Grouped by productId, in the order of the productIds, whatever the order they were created or asked for in
+		getAndVerifyRecommendationsByProductId("?productIds=3,1,4", OK)
+				.jsonPath("$.length()").isEqualTo(4)
+				.jsonPath("$[0].productId").isEqualTo(1)
+				.jsonPath("$[0].recommendationId").isEqualTo(1)
+				.jsonPath("$[1].productId").isEqualTo(1)
+				.jsonPath("$[1].recommendationId").isEqualTo(2)
+				.jsonPath("$[2].productId").isEqualTo(3)
+				.jsonPath("$[3].recommendationId").isEqualTo(2);
+
+		getAndVerifyRecommendationsByProductId("?productIds=1,-1", UNPROCESSABLE_ENTITY)
+				.jsonPath("$.message").isEqualTo("Invalid productId: -1");
+	}
+
+	@Test
+	void getRecommendationsWithFields() {
+
+		sendCreateRecommendationEvent(1, 2);
+
+		getAndVerifyRecommendationsByProductId("?productId=1&fields=author,rate", OK)
+				.jsonPath("$.length()").isEqualTo(1)
+				.jsonPath("$[0].productId").isEqualTo(1)
+				.jsonPath("$[0].recommendationId").isEqualTo(0)
+				.jsonPath("$[0].author").isEqualTo("Author 2")
+				.jsonPath("$[0].rate").isEqualTo(2)
+				.jsonPath("$[0].content").doesNotExist();
+
+		getAndVerifyRecommendationsByProductId("?productId=1&fields=subject", UNPROCESSABLE_ENTITY)
+				.jsonPath("$.message").value(message -> assertTrue(((String) message).startsWith("Invalid field: subject")));
+	}
+
+	@Test
+	void deleteRecommendationsInBulk() {
+
+		for (int productId = 1; productId <= 5; productId++) {
+			sendCreateRecommendationEvent(productId, 1);
+			sendCreateRecommendationEvent(productId, 2);
+		}
+
+		messageProcessor.accept(Event.deleteList(asList(1, 3)));
+		assertEquals(6, (long)repository.count().block());
+		assertEquals(0, (long)repository.findByProductId(3).count().block());
+
+		// Both bounds of the range are included
+		messageProcessor.accept(Event.deleteRange(2, 4));
+		assertEquals(2, (long)repository.count().block());
+		assertEquals(2, (long)repository.findByProductId(5).count().block());
+	}
+
 	@Test
 	void getRecommendationsMissingParameter() {
 
@@ -1,13 +1,23 @@
 package com.mkurt.reviewservice.persistence;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "reviews", indexes = { @Index(name = "reviews_unique_idx", unique = true, columnList = "productId,reviewId") })
 public class ReviewEntity {
 
+    // Fetches 50 ids per round trip to the hibernate_sequence table, the same table as the default generator used before.
+    // With pooled-lo the stored value is the first id of the next block, i.e. ids handed out before are not reused.
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "review_id_generator")
+    @GenericGenerator(name = "review_id_generator", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "hibernate_sequence"),
+            @Parameter(name = "increment_size", value = "50"),
+            @Parameter(name = "optimizer", value = "pooled-lo")
+    })
     private int id;
 
     @Version
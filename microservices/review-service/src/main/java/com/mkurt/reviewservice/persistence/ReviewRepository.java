@@ -1,9 +1,13 @@
 package com.mkurt.reviewservice.persistence;
 
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -11,4 +15,15 @@ public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer>
 
     @Transactional(readOnly = true)
     List<ReviewEntity> findByProductId(int productId);
+
+    // One DELETE statement each, unlike the derived delete queries that load and delete the entities one by one
+    @Transactional
+    @Modifying
+    @Query("delete from ReviewEntity r where r.productId in :productIds")
+    int deleteByProductIdIn(@Param("productIds") Collection<Integer> productIds);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ReviewEntity r where r.productId between :fromProductId and :toProductId")
+    int deleteByProductIdBetween(@Param("fromProductId") int fromProductId, @Param("toProductId") int toProductId);
 }
\ No newline at end of file
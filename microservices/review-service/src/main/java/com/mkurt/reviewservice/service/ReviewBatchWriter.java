@@ -0,0 +1,135 @@
+package com.mkurt.reviewservice.service;
+
+import com.mkurt.api.core.review.Review;
+import com.mkurt.api.event.Event;
+import com.mkurt.reviewservice.persistence.ReviewEntity;
+import com.mkurt.reviewservice.persistence.ReviewRepository;
+import com.mkurt.util.messaging.FailedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static com.mkurt.api.event.Event.Type.CREATE_BATCH;
+
+/**
+ * Applies a batch of review events with as few transactions and round trips as possible. Consecutive creates are
+ * inserted in one transaction, sent as JDBC batches, see hibernate.jdbc.batch_size in the config. Deletes are run
+ * in between, in the order of the events, as one DELETE statement each.
+ *
+ * If the inserts of a transaction violate a constraint, e.g. a review that already exists, the transaction is
+ * rolled back and the creates are inserted again one event per transaction. The events that still fail are
+ * returned together with the reason, the other events of the batch are applied anyway.
+ *
+ * Any other error stops the write. The events that were committed before it are already passed to the applied
+ * callback, so the caller knows which events are left.
+ */
+@Component
+public class ReviewBatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReviewBatchWriter.class);
+
+    private final ReviewRepository repository;
+    private final ReviewMapper mapper;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public ReviewBatchWriter(ReviewRepository repository, ReviewMapper mapper, PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.mapper = mapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Returns the events that could not be applied, the events must have been validated by the caller. The applied
+     * callback is called for each event that was applied, as soon as its transaction is committed.
+     */
+    public List<FailedEvent<Integer, Review>> write(List<Event<Integer, Review>> events, Consumer<Event<Integer, Review>> applied) {
+        List<FailedEvent<Integer, Review>> failedEvents = new ArrayList<>();
+        List<Event<Integer, Review>> creates = new ArrayList<>();
+
+        for (Event<Integer, Review> event : events) {
+            if (event.getEventType() == CREATE || event.getEventType() == CREATE_BATCH) {
+                creates.add(event);
+                continue;
+            }
+
+            insert(creates, failedEvents, applied);
+            creates.clear();
+            delete(event);
+            applied.accept(event);
+        }
+        insert(creates, failedEvents, applied);
+
+        return failedEvents;
+    }
+
+    private void insert(List<Event<Integer, Review>> creates, List<FailedEvent<Integer, Review>> failedEvents, Consumer<Event<Integer, Review>> applied) {
+        if (creates.isEmpty()) {
+            return;
+        }
+
+        try {
+            int count = insertInOneTransaction(creates);
+            LOG.debug("Inserted {} reviews for {} events in one transaction", count, creates.size());
+            creates.forEach(applied);
+
+        } catch (DataIntegrityViolationException ex) {
+            LOG.debug("Failed to insert the reviews of {} events in one transaction, inserts them one event at a time", creates.size());
+
+            for (Event<Integer, Review> create : creates) {
+                try {
+                    insertInOneTransaction(Collections.singletonList(create));
+                    applied.accept(create);
+                } catch (DataIntegrityViolationException rowEx) {
+                    failedEvents.add(new FailedEvent<>(create, "Duplicate key, Product Id: " + create.getKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * New entities are created for each attempt, the ids of a rolled back attempt must not be reused.
+     */
+    private int insertInOneTransaction(List<Event<Integer, Review>> creates) {
+        List<ReviewEntity> entities = new ArrayList<>();
+        for (Event<Integer, Review> create : creates) {
+            List<Review> reviews = create.getEventType() == CREATE ? Collections.singletonList(create.getData()) : create.getItems();
+            entities.addAll(mapper.apiListToEntityList(reviews));
+        }
+
+        transactionTemplate.executeWithoutResult(status -> repository.saveAll(entities));
+        return entities.size();
+    }
+
+    private void delete(Event<Integer, Review> event) {
+        int count;
+        switch (event.getEventType()) {
+
+            case DELETE:
+                count = repository.deleteByProductIdIn(Collections.singletonList(event.getKey()));
+                break;
+
+            case DELETE_LIST:
+                count = repository.deleteByProductIdIn(event.getKeys());
+                break;
+
+            case DELETE_RANGE:
+                count = repository.deleteByProductIdBetween(event.getKeys().get(0), event.getKeys().get(1));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unsupported event type in a batch: " + event.getEventType());
+        }
+        LOG.debug("Deleted {} reviews for a {} event", count, event.getEventType());
+    }
+}
@@ -11,35 +11,64 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
 
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.logging.Level;
 
 import static java.util.logging.Level.FINE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @RestController
 public class ReviewServiceImpl implements ReviewService {
 
     private static final Logger LOG = LoggerFactory.getLogger(ReviewServiceImpl.class);
 
+    private static final int MAX_PRODUCT_IDS = 1000;
+
+    private static final String STREAM_QUERY =
+            "select r from ReviewEntity r where r.productId in :productIds order by r.productId, r.reviewId";
+
+    private static final List<String> SELECTABLE_FIELDS = List.of("reviewId", "author", "subject", "content");
+
     private final ReviewRepository repository;
     private final ReviewMapper mapper;
     private final ServiceUtil serviceUtil;
     private final Scheduler jdbcScheduler; /** When we must use blocking code, for example, when using Spring Data for JPA, we can encapsulate the processing of the blocking code by scheduling the processing of it in a dedicated thread pool. */
+    private final TransactionTemplate readOnlyTransaction;
+    private final EntityManager entityManager;
 
     @Autowired
     public ReviewServiceImpl(ReviewRepository repository,
                              ReviewMapper mapper,
                              ServiceUtil serviceUtil,
-                             @Qualifier("jdbcScheduler") Scheduler jdbcScheduler) {
+                             @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+                             PlatformTransactionManager transactionManager,
+                             EntityManager entityManager) {
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
         this.jdbcScheduler = jdbcScheduler;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
     @Override
@@ -65,6 +94,56 @@ public class ReviewServiceImpl implements ReviewService {
         }
     }
 
+    @Override
+    public Flux<Review> createReviews(List<Review> body) {
+
+        body.forEach(review -> {
+            if (review.getProductId() < 1) {
+                throw new InvalidInputException("Invalid productId: " + review.getProductId());
+            }
+        });
+
+        return Mono.fromCallable(() -> internalCreateReviews(body))
+                .flatMapMany(Flux::fromIterable)
+                .subscribeOn(jdbcScheduler);
+    }
+
+    /**
+     * saveAll() runs in one transaction, i.e. either all or none of the reviews are created.
+     */
+    private List<Review> internalCreateReviews(List<Review> body) {
+        try {
+            List<ReviewEntity> entities = mapper.apiListToEntityList(body);
+            List<ReviewEntity> newEntities = new ArrayList<>();
+            repository.saveAll(entities).forEach(newEntities::add);
+
+            LOG.debug("createReviews: created {} review entities", newEntities.size());
+            return mapper.entityListToApiList(newEntities);
+
+        } catch (DataIntegrityViolationException dive) {
+            throw new InvalidInputException("Duplicate keys in a batch of reviews, Product Id/Review Ids: " + duplicateKeys(body) +
+                    ", none of the reviews are written");
+        }
+    }
+
+    /**
+     * The productId/reviewId of the reviews that already exist or occur more than once in the batch. A batch can hold
+     * the reviews of many products, e.g. the ones of a partition, and the failed saveAll() does not tell which review
+     * failed, so they are looked up.
+     */
+    private List<String> duplicateKeys(List<Review> body) {
+        Set<String> existingKeys = new HashSet<>();
+        body.stream().map(Review::getProductId).distinct()
+                .forEach(productId -> repository.findByProductId(productId)
+                        .forEach(entity -> existingKeys.add(entity.getProductId() + "/" + entity.getReviewId())));
+
+        Set<String> batchKeys = new HashSet<>();
+        return body.stream()
+                .map(review -> review.getProductId() + "/" + review.getReviewId())
+                .filter(key -> existingKeys.contains(key) || !batchKeys.add(key))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Here, the blocking code is placed in the internalGetReviews() method and is wrapped in a Mono object
      * using the Mono.fromCallable() method. The getReviews() method uses the subscribeOn() method to run
@@ -96,6 +175,130 @@ public class ReviewServiceImpl implements ReviewService {
         return list;
     }
 
+    @Override
+    public Flux<Review> getReviews(int productId, List<String> fields) {
+
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        fields.forEach(field -> {
+            if (!SELECTABLE_FIELDS.contains(field)) {
+                throw new InvalidInputException("Invalid field: " + field + ", expected any of " + SELECTABLE_FIELDS);
+            }
+        });
+
+        LOG.info("Will get the fields {} of the reviews for product with id={}", fields, productId);
+
+        return Mono.fromCallable(() -> readOnlyTransaction.execute(status -> internalGetReviews(productId, fields)))
+                .flatMapMany(Flux::fromIterable)
+                .log(LOG.getName(), FINE)
+                .subscribeOn(jdbcScheduler);
+    }
+
+    /**
+     * A tuple query that selects only the columns of the selected fields, i.e. the entities are not loaded and the
+     * other columns, e.g. the content, are not read.
+     */
+    private List<Review> internalGetReviews(int productId, List<String> fields) {
+
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = builder.createTupleQuery();
+        Root<ReviewEntity> review = query.from(ReviewEntity.class);
+
+        List<Selection<?>> selections = new ArrayList<>();
+        selections.add(review.get("productId").alias("productId"));
+        fields.stream().distinct().forEach(field -> selections.add(review.get(field).alias(field)));
+        query.multiselect(selections).where(builder.equal(review.get("productId"), productId));
+
+        List<Review> list = entityManager.createQuery(query).getResultList().stream()
+                .map(tuple -> toReview(tuple, fields))
+                .collect(Collectors.toList());
+
+        LOG.debug("Response size: {}", list.size());
+
+        return list;
+    }
+
+    private Review toReview(Tuple tuple, List<String> fields) {
+        Review review = new Review();
+        review.setProductId(tuple.get("productId", Integer.class));
+        if (fields.contains("reviewId")) {
+            review.setReviewId(tuple.get("reviewId", Integer.class));
+        }
+        if (fields.contains("author")) {
+            review.setAuthor(tuple.get("author", String.class));
+        }
+        if (fields.contains("subject")) {
+            review.setSubject(tuple.get("subject", String.class));
+        }
+        if (fields.contains("content")) {
+            review.setContent(tuple.get("content", String.class));
+        }
+        review.setServiceAddress(serviceUtil.getServiceAddress());
+        return review;
+    }
+
+    /**
+     * One query for all products, i.e. one connection from the pool and one thread from jdbcScheduler for all of
+     * them. The rows are streamed from the result set and only read as the caller requests reviews, the stream is
+     * closed once the flux completes, fails or is cancelled.
+     */
+    @Override
+    public Flux<Review> getReviewsForProducts(List<Integer> productIds) {
+
+        if (productIds.isEmpty() || productIds.size() > MAX_PRODUCT_IDS) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + MAX_PRODUCT_IDS);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        LOG.info("Will get reviews for {} products", productIds.size());
+
+        return Flux.using(() -> streamReviews(productIds), Flux::fromStream, Stream::close)
+                .map(entity -> {
+                    Review review = mapper.entityToApi(entity);
+                    review.setServiceAddress(serviceUtil.getServiceAddress());
+                    return review;
+                })
+                .log(LOG.getName(), FINE)
+                .subscribeOn(jdbcScheduler);
+    }
+
+    /**
+     * One IN query, sorted like the reviews_unique_idx index. A fetch size of Integer.MIN_VALUE makes the MySQL
+     * driver stream the rows instead of reading the whole result set first. The stream keeps a transaction of its
+     * own entity manager open until it is closed: unlike a transaction of the transaction manager it is not bound to
+     * the thread, i.e. the stream may be closed by the thread that cancels the flux.
+     */
+    private Stream<ReviewEntity> streamReviews(List<Integer> productIds) {
+        EntityManager streamEntityManager = entityManager.getEntityManagerFactory().createEntityManager();
+        try {
+            streamEntityManager.getTransaction().begin();
+            return streamEntityManager.createQuery(STREAM_QUERY, ReviewEntity.class)
+                    .setParameter("productIds", productIds)
+                    .setHint(HINT_FETCH_SIZE, Integer.MIN_VALUE)
+                    .setHint(HINT_READONLY, true)
+                    .getResultStream()
+                    .onClose(() -> close(streamEntityManager));
+        } catch (RuntimeException ex) {
+            close(streamEntityManager);
+            throw ex;
+        }
+    }
+
+    private static void close(EntityManager streamEntityManager) {
+        try {
+            if (streamEntityManager.getTransaction().isActive()) {
+                streamEntityManager.getTransaction().rollback();
+            }
+        } finally {
+            streamEntityManager.close();
+        }
+    }
+
     @Override
     public Mono<Void> deleteReviews(int productId) {
 
@@ -110,4 +313,37 @@ public class ReviewServiceImpl implements ReviewService {
         LOG.debug("deleteReviews: tries to delete reviews for the product with productId: {}", productId);
         repository.deleteAll(repository.findByProductId(productId));
     }
+
+    @Override
+    public Mono<Void> deleteReviewsForProducts(List<Integer> productIds) {
+
+        if (productIds.isEmpty() || productIds.size() > MAX_PRODUCT_IDS) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + MAX_PRODUCT_IDS);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        return Mono.fromRunnable(() -> {
+            LOG.debug("deleteReviewsForProducts: tries to delete reviews for {} products", productIds.size());
+            int count = repository.deleteByProductIdIn(productIds);
+            LOG.debug("deleteReviewsForProducts: deleted {} reviews", count);
+        }).subscribeOn(jdbcScheduler).then();
+    }
+
+    @Override
+    public Mono<Void> deleteReviewsForProductRange(int fromProductId, int toProductId) {
+
+        if (fromProductId < 1 || toProductId < fromProductId) {
+            throw new InvalidInputException("Invalid productId range: " + fromProductId + " to " + toProductId);
+        }
+
+        return Mono.fromRunnable(() -> {
+            LOG.debug("deleteReviewsForProductRange: tries to delete reviews for productId {} to {}", fromProductId, toProductId);
+            int count = repository.deleteByProductIdBetween(fromProductId, toProductId);
+            LOG.debug("deleteReviewsForProductRange: deleted {} reviews", count);
+        }).subscribeOn(jdbcScheduler).then();
+    }
 }
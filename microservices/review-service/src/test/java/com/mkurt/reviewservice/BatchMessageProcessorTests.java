@@ -0,0 +1,90 @@
+package com.mkurt.reviewservice;
+
+import com.mkurt.api.core.review.Review;
+import com.mkurt.api.core.review.ReviewService;
+import com.mkurt.api.event.Event;
+import com.mkurt.reviewservice.service.MessageProcessorConfig;
+import com.mkurt.reviewservice.service.ReviewBatchWriter;
+import com.mkurt.util.messaging.FailedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchMessageProcessorTests {
+
+    private final ReviewBatchWriter batchWriter = mock(ReviewBatchWriter.class);
+    private final StreamBridge streamBridge = mock(StreamBridge.class);
+    private final List<Message<?>> dlqMessages = new ArrayList<>();
+    private final List<List<Event<Integer, Review>>> writes = new ArrayList<>();
+
+    private final Consumer<List<Event<Integer, Review>>> batchMessageProcessor = new MessageProcessorConfig(
+            mock(ReviewService.class), batchWriter, streamBridge, 8, 64, 3, 500, 1000, 1000, 0.01, new SimpleMeterRegistry())
+            .batchMessageProcessor();
+
+    @Test
+    void failedEventsAreSentToDlq() {
+        when(streamBridge.send(anyString(), any())).thenAnswer(invocation -> dlqMessages.add(invocation.getArgument(1)));
+        Event<Integer, Review> duplicate = createEvent(1);
+        when(batchWriter.write(anyList(), any())).thenAnswer(invocation -> {
+            List<Event<Integer, Review>> events = invocation.getArgument(0);
+            writes.add(new ArrayList<>(events));
+            return List.of(new FailedEvent<>(duplicate, "Duplicate key, Product Id: 1"));
+        });
+
+        Event<Integer, Review> invalid = Event.createBatch(2, List.of());
+        Event<Integer, Review> valid = createEvent(3);
+        batchMessageProcessor.accept(asList(duplicate, invalid, valid));
+
+        // The invalid event is not written, the duplicate is written and fails
+        assertEquals(List.of(asList(duplicate, valid)), writes);
+        assertEquals(2, dlqMessages.size());
+        assertEquals(invalid, dlqMessages.get(0).getPayload());
+        assertEquals("Invalid reviews in a CREATE_BATCH event", dlqMessages.get(0).getHeaders().get("x-exception-message"));
+        assertEquals(duplicate, dlqMessages.get(1).getPayload());
+        assertEquals("Duplicate key, Product Id: 1", dlqMessages.get(1).getHeaders().get("x-exception-message"));
+    }
+
+    @Test
+    void retryOfFailedBatchOnlyWritesWhatIsLeft() {
+        Event<Integer, Review> first = createEvent(1);
+        Event<Integer, Review> second = createEvent(2);
+        when(batchWriter.write(anyList(), any())).thenAnswer(invocation -> {
+            List<Event<Integer, Review>> events = invocation.getArgument(0);
+            Consumer<Event<Integer, Review>> applied = invocation.getArgument(1);
+            writes.add(new ArrayList<>(events));
+            if (writes.size() == 1) {
+                // The first transaction is committed before the connection is lost
+                applied.accept(events.get(0));
+                throw new DataAccessResourceFailureException("Connection lost");
+            }
+            events.forEach(applied);
+            return List.of();
+        });
+
+        assertThrows(DataAccessResourceFailureException.class, () -> batchMessageProcessor.accept(asList(first, second)));
+        batchMessageProcessor.accept(asList(first, second));
+
+        assertEquals(List.of(asList(first, second), List.of(second)), writes);
+        assertEquals(0, dlqMessages.size());
+    }
+
+    private Event<Integer, Review> createEvent(int productId) {
+        return new Event(CREATE, productId, new Review(productId, 1, "a", "s", "c", null));
+    }
+}
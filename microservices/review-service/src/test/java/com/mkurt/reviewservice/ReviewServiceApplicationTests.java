@@ -4,6 +4,8 @@ import com.mkurt.api.core.review.Review;
 import com.mkurt.api.event.Event;
 import com.mkurt.api.exception.InvalidInputException;
 import com.mkurt.reviewservice.persistence.ReviewRepository;
+import com.mkurt.reviewservice.service.ReviewBatchWriter;
+import com.mkurt.util.messaging.FailedEvent;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,12 +14,16 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 import static com.mkurt.api.event.Event.Type.CREATE;
 import static com.mkurt.api.event.Event.Type.DELETE;
+import static java.util.Arrays.asList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
@@ -39,6 +45,9 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 	@Qualifier("messageProcessor")
 	private Consumer<Event<Integer, Review>> messageProcessor;
 
+	@Autowired
+	private ReviewBatchWriter batchWriter;
+
 	@BeforeEach
 	void setupDb() {
 		repository.deleteAll();
@@ -64,6 +73,37 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 				.jsonPath("$[2].reviewId").isEqualTo(3);
 	}
 
+	@Test
+	void createReviewsInBatch() {
+
+		int productId = 1;
+
+		List<Review> reviews = asList(
+				new Review(productId, 1, "Author 1", "Subject 1", "Content 1", "SA"),
+				new Review(productId, 2, "Author 2", "Subject 2", "Content 2", "SA"));
+		messageProcessor.accept(Event.createBatch(productId, reviews));
+
+		assertEquals(2, repository.findByProductId(productId).size());
+	}
+
+	@Test
+	void duplicateInBatchCreatesNothing() {
+
+		int productId = 1;
+
+		List<Review> reviews = asList(
+				new Review(productId, 1, "Author 1", "Subject 1", "Content 1", "SA"),
+				new Review(2, 1, "Author 1", "Subject 1", "Content 1", "SA"),
+				new Review(productId, 1, "Author 1", "Subject 1", "Content 1", "SA"));
+
+		InvalidInputException thrown = assertThrows(InvalidInputException.class,
+				() -> messageProcessor.accept(Event.createBatch(productId, reviews)));
+		assertEquals("Duplicate keys in a batch of reviews, Product Id/Review Ids: [1/1], none of the reviews are written",
+				thrown.getMessage());
+
+		assertEquals(0, repository.count());
+	}
+
 	@Test
 	void duplicateError() {
 
@@ -100,6 +140,90 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 		sendDeleteReviewEvent(productId);
 	}
 
+	@Test
+	void getReviewsForProducts() {
+
+		sendCreateReviewEvent(3, 2);
+		sendCreateReviewEvent(1, 2);
+		sendCreateReviewEvent(2, 1);
+		sendCreateReviewEvent(3, 1);
+		sendCreateReviewEvent(1, 1);
+
+		// Grouped by productId, in the order of the productIds, whatever the order they were created or asked for in
+		getAndVerifyReviewsByProductId("?productIds=3,1,4", OK)
+				.jsonPath("$.length()").isEqualTo(4)
+				.jsonPath("$[0].productId").isEqualTo(1)
+				.jsonPath("$[0].reviewId").isEqualTo(1)
+				.jsonPath("$[1].productId").isEqualTo(1)
+				.jsonPath("$[1].reviewId").isEqualTo(2)
+				.jsonPath("$[2].productId").isEqualTo(3)
+				.jsonPath("$[3].reviewId").isEqualTo(2);
+
+		getAndVerifyReviewsByProductId("?productIds=1,-1", UNPROCESSABLE_ENTITY)
+				.jsonPath("$.message").isEqualTo("Invalid productId: -1");
+	}
+
+	@Test
+	void getReviewsWithFields() {
+
+		sendCreateReviewEvent(1, 2);
+
+		getAndVerifyReviewsByProductId("?productId=1&fields=reviewId,author", OK)
+				.jsonPath("$.length()").isEqualTo(1)
+				.jsonPath("$[0].productId").isEqualTo(1)
+				.jsonPath("$[0].reviewId").isEqualTo(2)
+				.jsonPath("$[0].author").isEqualTo("Author 2")
+				.jsonPath("$[0].subject").doesNotExist()
+				.jsonPath("$[0].content").doesNotExist();
+
+		getAndVerifyReviewsByProductId("?productId=1&fields=rate", UNPROCESSABLE_ENTITY)
+				.jsonPath("$.message").value(message -> assertTrue(((String) message).startsWith("Invalid field: rate")));
+	}
+
+	@Test
+	void deleteReviewsInBulk() {
+
+		for (int productId = 1; productId <= 5; productId++) {
+			sendCreateReviewEvent(productId, 1);
+			sendCreateReviewEvent(productId, 2);
+		}
+
+		messageProcessor.accept(Event.deleteList(asList(1, 3)));
+		assertEquals(6, repository.count());
+		assertEquals(0, repository.findByProductId(3).size());
+
+		// Both bounds of the range are included
+		messageProcessor.accept(Event.deleteRange(2, 4));
+		assertEquals(2, repository.count());
+		assertEquals(2, repository.findByProductId(5).size());
+	}
+
+	@Test
+	void writeEventsInBatches() {
+
+		sendCreateReviewEvent(1, 1);
+
+		List<Event<Integer, Review>> events = asList(
+				new Event(CREATE, 1, new Review(1, 1, "Author", "Duplicate", "Content", "SA")),
+				Event.createBatch(2, asList(new Review(2, 1, "a", "s", "c", "SA"), new Review(2, 2, "a", "s", "c", "SA"))),
+				new Event(CREATE, 3, new Review(3, 1, "a", "s", "c", "SA")),
+				new Event(DELETE, 2, null),
+				new Event(CREATE, 2, new Review(2, 3, "a", "s", "c", "SA")));
+
+		// Only the duplicate fails, the other events are applied in order
+		List<Event<Integer, Review>> applied = new ArrayList<>();
+		List<FailedEvent<Integer, Review>> failures = batchWriter.write(events, applied::add);
+		assertEquals(1, failures.size());
+		assertEquals(1, failures.get(0).getEvent().getKey());
+		assertEquals(events.subList(1, events.size()), applied);
+
+		assertEquals("Subject 1", repository.findByProductId(1).get(0).getSubject());
+		assertEquals(1, repository.findByProductId(2).size());
+		assertEquals(3, repository.findByProductId(2).get(0).getReviewId());
+		assertEquals(1, repository.findByProductId(3).size());
+		assertEquals(3, repository.count());
+	}
+
 	@Test
 	void getReviewsMissingParameter() {
 
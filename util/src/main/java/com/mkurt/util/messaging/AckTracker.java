@@ -0,0 +1,113 @@
+package com.mkurt.util.messaging;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Acknowledges messages in the order they were received per partition, whatever the order they are completed in.
+ * A Kafka acknowledgement commits the offset of the message, i.e. it also commits all earlier messages of the
+ * partition, so a message is only acknowledged once all earlier messages of its partition are done. RabbitMQ
+ * delivery tags are tracked per channel.
+ *
+ * A message that failed is moved to the DLQ, see Acknowledgements. Messages without acknowledgement headers, i.e.
+ * from a binding that is not in manual acknowledge mode, are only tracked.
+ */
+public class AckTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AckTracker.class);
+
+    private static final Object NO_PARTITION = new Object();
+
+    private final BiConsumer<Message<?>, Throwable> deadLetterSender;
+
+    // The messages not yet acknowledged per partition, in the order they were received
+    private final Map<Object, Deque<Pending>> partitions = new HashMap<>();
+
+    public AckTracker(BiConsumer<Message<?>, Throwable> deadLetterSender) {
+        this.deadLetterSender = deadLetterSender;
+    }
+
+    /**
+     * Must be called in the order the messages are received, i.e. from the binder thread.
+     */
+    public synchronized Pending register(Message<?> message) {
+        Pending pending = new Pending(message, partitionOf(message.getHeaders()));
+        partitions.computeIfAbsent(pending.partition, partition -> new ArrayDeque<>()).addLast(pending);
+        return pending;
+    }
+
+    /**
+     * Marks the message as done, with a null error if it was processed, and acknowledges all messages of its
+     * partition that are done and not preceded by a message that is still in progress.
+     */
+    public synchronized void complete(Pending pending, Throwable error) {
+        pending.done = true;
+        pending.error = error;
+
+        Deque<Pending> queue = partitions.get(pending.partition);
+        while (!queue.isEmpty() && queue.peekFirst().done) {
+            acknowledge(queue.pollFirst());
+        }
+        if (queue.isEmpty()) {
+            partitions.remove(pending.partition);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return partitions.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    private void acknowledge(Pending pending) {
+        try {
+            Acknowledgements.acknowledge(pending.message, pending.error, deadLetterSender);
+        } catch (IOException | RuntimeException ex) {
+            // The broker redelivers the message, acknowledging the later messages of the partition must go on
+            LOG.warn("Failed to acknowledge a message: {}", ex.toString());
+        }
+    }
+
+    private static Object partitionOf(MessageHeaders headers) {
+        Channel channel = headers.get(AmqpHeaders.CHANNEL, Channel.class);
+        if (channel != null) {
+            return channel;
+        }
+
+        Object partitionId = headers.get(KafkaHeaders.RECEIVED_PARTITION_ID);
+        if (partitionId != null) {
+            return List.of(String.valueOf(headers.get(KafkaHeaders.RECEIVED_TOPIC)), partitionId);
+        }
+
+        return NO_PARTITION;
+    }
+
+    public static class Pending {
+
+        private final Message<?> message;
+        private final Object partition;
+        private boolean done;
+        private Throwable error;
+
+        Pending(Message<?> message, Object partition) {
+            this.message = message;
+            this.partition = partition;
+            this.done = false;
+        }
+
+        public Message<?> getMessage() {
+            return message;
+        }
+    }
+}
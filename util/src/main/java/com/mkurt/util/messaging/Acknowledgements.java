@@ -0,0 +1,54 @@
+package com.mkurt.util.messaging;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+/**
+ * The acknowledgement rules of the consumers in manual acknowledge mode. A message that was processed is
+ * acknowledged. A message that failed is rejected without requeue for RabbitMQ, which moves it to the DLQ bound to
+ * the queue. For Kafka, it is passed to deadLetterSender before it is acknowledged. Messages without
+ * acknowledgement headers, i.e. from a binding that is not in manual acknowledge mode, are left as they are.
+ */
+public class Acknowledgements {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Acknowledgements.class);
+
+    private Acknowledgements() {
+    }
+
+    /**
+     * Acknowledges the message, with a null error if it was processed, or moves it to the DLQ.
+     */
+    public static void acknowledge(Message<?> message, Throwable error, BiConsumer<Message<?>, Throwable> deadLetterSender) throws IOException {
+        MessageHeaders headers = message.getHeaders();
+        Channel channel = headers.get(AmqpHeaders.CHANNEL, Channel.class);
+        Long deliveryTag = headers.get(AmqpHeaders.DELIVERY_TAG, Long.class);
+        Acknowledgment acknowledgment = headers.get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+
+        if (error != null) {
+            LOG.warn("Failed to process a message, moves it to the DLQ: {}", error.toString());
+        }
+
+        if (channel != null && deliveryTag != null) {
+            if (error == null) {
+                channel.basicAck(deliveryTag, false);
+            } else {
+                channel.basicNack(deliveryTag, false, false);
+            }
+        } else if (acknowledgment != null) {
+            if (error != null) {
+                deadLetterSender.accept(message, error);
+            }
+            acknowledgment.acknowledge();
+        }
+    }
+}
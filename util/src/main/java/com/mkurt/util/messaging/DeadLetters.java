@@ -0,0 +1,54 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.exception.EventProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.function.BiPredicate;
+
+/**
+ * Sends failed events and messages to the dead-letter queue binding of a consumer, for the consumers that handle
+ * failures themselves, i.e. the batch and key ordered consumers. The sender is normally StreamBridge::send, it
+ * returns false if the message could not be sent, which fails the send with an EventProcessingException.
+ */
+public class DeadLetters {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeadLetters.class);
+
+    // Same header as the binder sets when it republishes a failed message to the DLQ
+    public static final String EXCEPTION_MESSAGE_HEADER = "x-exception-message";
+
+    private final String bindingName;
+    private final BiPredicate<String, Object> sender;
+
+    public DeadLetters(String bindingName, BiPredicate<String, Object> sender) {
+        this.bindingName = bindingName;
+        this.sender = sender;
+    }
+
+    public void send(FailedEvent<?, ?> failed) {
+        LOG.warn("Sends a {} event for key: {} to {}: {}",
+                failed.getEvent().getEventType(), failed.getEvent().getKey(), bindingName, failed.getReason());
+
+        boolean sent = sender.test(bindingName, MessageBuilder.withPayload(failed.getEvent())
+                .setHeader(EXCEPTION_MESSAGE_HEADER, failed.getReason())
+                .build());
+        if (!sent) {
+            throw new EventProcessingException("Failed to send a failed event to the DLQ: " + failed.getReason());
+        }
+    }
+
+    /**
+     * Only used for Kafka, a failed RabbitMQ message is rejected and moved to the DLQ by the broker.
+     */
+    public void send(Message<?> message, Throwable error) {
+        boolean sent = sender.test(bindingName, MessageBuilder.fromMessage(message)
+                .setHeader(EXCEPTION_MESSAGE_HEADER, error.getMessage())
+                .build());
+        if (!sent) {
+            throw new EventProcessingException("Failed to send a failed message to the DLQ: " + error.getMessage());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.event.Event;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the ids of the events a consumer has processed, to skip a redelivered event before it touches the
+ * database, e.g. after a retry or a rebalance. An event is only remembered once it is processed, a failed event is
+ * not skipped when it is retried. Events without an id, i.e. sent before events had ids, are never skipped.
+ *
+ * The ids are kept in an LRU set of maxEvents entries, which decides if an event is a duplicate. In front of it is a
+ * Bloom filter, which answers most lookups, i.e. the ones for new events, without taking the lock of the LRU set.
+ * The Bloom filter has two generations of maxEvents ids each and is sized for falsePositiveRate, a false positive
+ * only costs a lookup in the LRU set. Kept in memory per instance, a duplicate that is delivered to another
+ * instance is processed again.
+ */
+public class DuplicateEventFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DuplicateEventFilter.class);
+
+    private final String consumer;
+    private final int maxEvents;
+    private final double falsePositiveRate;
+    private final Map<String, Boolean> recentIds;
+    private final Counter skipped;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+
+    public DuplicateEventFilter(String consumer, int maxEvents, double falsePositiveRate, MeterRegistry meterRegistry) {
+
+        LOG.info("Creates a duplicate event filter for {} with maxEvents = {}, falsePositiveRate = {}",
+                consumer, maxEvents, falsePositiveRate);
+
+        this.consumer = consumer;
+        this.maxEvents = maxEvents;
+        this.falsePositiveRate = falsePositiveRate;
+        this.recentIds = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxEvents;
+            }
+        };
+        this.skipped = Counter.builder("events.duplicates.skipped")
+                .description("The number of redelivered events that were skipped")
+                .tag("consumer", consumer)
+                .register(meterRegistry);
+        this.current = new BloomFilter(maxEvents, falsePositiveRate);
+        this.previous = new BloomFilter(1, falsePositiveRate);
+    }
+
+    /**
+     * Returns true, and counts it as skipped, if the event already has been processed.
+     */
+    public boolean isDuplicate(Event<?, ?> event) {
+        String eventId = event.getEventId();
+        if (eventId == null || !(current.mightContain(eventId) || previous.mightContain(eventId))) {
+            return false;
+        }
+
+        boolean duplicate;
+        synchronized (recentIds) {
+            duplicate = recentIds.containsKey(eventId);
+        }
+        if (duplicate) {
+            LOG.debug("Skips the {} event {} for {}, it is already processed by {}", event.getEventType(), eventId, event.getKey(), consumer);
+            skipped.increment();
+        }
+        return duplicate;
+    }
+
+    public void markProcessed(Event<?, ?> event) {
+        String eventId = event.getEventId();
+        if (eventId == null) {
+            return;
+        }
+
+        synchronized (recentIds) {
+            recentIds.put(eventId, Boolean.TRUE);
+            // All ids in the LRU set are among the last maxEvents ids added, i.e. in one of the two generations
+            if (current.isFull()) {
+                previous = current;
+                current = new BloomFilter(maxEvents, falsePositiveRate);
+            }
+            current.add(eventId);
+        }
+    }
+
+    /**
+     * A Bloom filter for expectedIds ids, with double hashing over a 64-bit FNV-1a hash of the id.
+     */
+    private static class BloomFilter {
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashCount;
+        private final long expectedIds;
+        private final AtomicLong added = new AtomicLong();
+
+        BloomFilter(long expectedIds, double falsePositiveRate) {
+            long optimalBits = (long) Math.ceil(-expectedIds * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bitCount = Math.max(64, optimalBits);
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedIds * Math.log(2)));
+            this.bits = new AtomicLongArray((int) ((bitCount + 63) / 64));
+            this.expectedIds = expectedIds;
+        }
+
+        boolean isFull() {
+            return added.get() >= expectedIds;
+        }
+
+        void add(String id) {
+            long hash = hash(id);
+            int hash1 = (int) hash;
+            int hash2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long bit = Math.floorMod(hash1 + (long) i * hash2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value;
+                do {
+                    value = bits.get(word);
+                } while ((value & mask) == 0 && !bits.compareAndSet(word, value, value | mask));
+            }
+            added.incrementAndGet();
+        }
+
+        boolean mightContain(String id) {
+            long hash = hash(id);
+            int hash1 = (int) hash;
+            int hash2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long bit = Math.floorMod(hash1 + (long) i * hash2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long hash(String id) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < id.length(); i++) {
+                hash ^= id.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+}
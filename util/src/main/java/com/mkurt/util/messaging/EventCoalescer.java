@@ -0,0 +1,198 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static com.mkurt.api.event.Event.Type.DELETE;
+
+/**
+ * Holds the events of a key for windowMs after the first one arrives and processes only their net effect, i.e.
+ * events that are superseded by a later DELETE event of the same key are dropped. A CREATE followed by a DELETE
+ * results in the DELETE only, a DELETE followed by a CREATE in both, in that order. The net events of a key are
+ * processed by a KeyOrderedDispatcher, as one message: all source messages are acknowledged, or sent to the DLQ,
+ * once the net events are processed.
+ *
+ * Events that concern more than one key, i.e. list and range deletes, are not held: the events held for all keys
+ * are dispatched first, then the event itself. If more than maxPending events are held, all of them are dispatched
+ * at once. The binding must allow that many unacknowledged messages, e.g. through the RabbitMQ prefetch.
+ *
+ * The groups are dispatched outside the lock of the held events, since a dispatch blocks while the dispatcher is
+ * full: the events keep being held and flushed meanwhile. The flushed groups are queued in the order they are
+ * flushed and dispatched in that order by whichever thread gets the dispatch lock.
+ *
+ * The coalescer owns its dispatcher, it is shut down together with the coalescer.
+ */
+public class EventCoalescer<K, T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventCoalescer.class);
+
+    private final long windowMs;
+    private final int maxPending;
+    private final KeyOrderedDispatcher dispatcher;
+    private final Consumer<Event<K, T>> processor;
+    private final ScheduledExecutorService scheduler;
+
+    // The events held per key, guarded by itself
+    private final Map<K, Group> groups = new LinkedHashMap<>();
+    private int pendingCount = 0;
+
+    // The flushed groups in the order they are to be dispatched, only dispatched while holding dispatchLock
+    private final Queue<Dispatch> flushed = new ConcurrentLinkedQueue<>();
+    private final Lock dispatchLock = new ReentrantLock();
+
+    public EventCoalescer(String name, long windowMs, int maxPending, KeyOrderedDispatcher dispatcher, Consumer<Event<K, T>> processor) {
+
+        LOG.info("Creates an event coalescer for {} with windowMs = {}, maxPending = {}", name, windowMs, maxPending);
+
+        this.windowMs = windowMs;
+        this.maxPending = maxPending;
+        this.dispatcher = dispatcher;
+        this.processor = processor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, name + "-coalescer"));
+    }
+
+    /**
+     * Must be called in the order the messages are received, i.e. from the binder thread.
+     */
+    public void add(Message<Event<K, T>> message) {
+        Event<K, T> event = message.getPayload();
+        AckTracker.Pending pending = dispatcher.register(message);
+
+        synchronized (groups) {
+            if (KeyOrderedDispatcher.orderingKey(event) == null) {
+                flushAll();
+                flushed.add(new Dispatch(List.of(pending), null, () -> processor.accept(event)));
+            } else {
+                hold(event, pending);
+            }
+        }
+        dispatchFlushed();
+    }
+
+    private void hold(Event<K, T> event, AckTracker.Pending pending) {
+        K key = event.getKey();
+        Group group = groups.get(key);
+        if (group == null) {
+            Group newGroup = new Group(key);
+            groups.put(key, newGroup);
+            scheduler.schedule(() -> flush(newGroup), windowMs, TimeUnit.MILLISECONDS);
+            group = newGroup;
+        }
+        group.pendings.add(pending);
+        group.events.add(event);
+        pendingCount++;
+
+        if (pendingCount > maxPending) {
+            flushAll();
+        }
+    }
+
+    /**
+     * The events that remain once the events superseded by a later DELETE event are dropped, in their order.
+     */
+    public static <K, T> List<Event<K, T>> coalesce(List<Event<K, T>> events) {
+        int lastDelete = -1;
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i).getEventType() == DELETE) {
+                lastDelete = i;
+            }
+        }
+        return lastDelete <= 0 ? events : new ArrayList<>(events.subList(lastDelete, events.size()));
+    }
+
+    /**
+     * Dispatches the events that are held, they are processed before the dispatcher shuts down.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        synchronized (groups) {
+            flushAll();
+        }
+        dispatchFlushed();
+        dispatcher.shutdown();
+    }
+
+    private void flush(Group group) {
+        synchronized (groups) {
+            // Already dispatched by flushAll() if no longer held
+            if (groups.get(group.key) == group) {
+                groups.remove(group.key);
+                enqueue(group);
+            }
+        }
+        dispatchFlushed();
+    }
+
+    /**
+     * Must be called while holding the lock of the groups, the groups are dispatched by dispatchFlushed().
+     */
+    private void flushAll() {
+        List<Group> heldGroups = new ArrayList<>(groups.values());
+        groups.clear();
+        heldGroups.forEach(this::enqueue);
+    }
+
+    private void enqueue(Group group) {
+        pendingCount -= group.events.size();
+        List<Event<K, T>> netEvents = coalesce(group.events);
+        if (netEvents.size() < group.events.size()) {
+            LOG.debug("Coalesced {} events for key {} into {}", group.events.size(), group.key, netEvents.size());
+        }
+        flushed.add(new Dispatch(group.pendings, group.key, () -> netEvents.forEach(processor)));
+    }
+
+    /**
+     * Must be called without holding the lock of the groups. Blocks while another thread dispatches, i.e. the
+     * binder thread is held back while the dispatcher is full.
+     */
+    private void dispatchFlushed() {
+        dispatchLock.lock();
+        try {
+            Dispatch next;
+            while ((next = flushed.poll()) != null) {
+                dispatcher.dispatch(next.pendings, next.key, next.task);
+            }
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    private static class Dispatch {
+
+        private final List<AckTracker.Pending> pendings;
+        private final Object key;
+        private final Runnable task;
+
+        Dispatch(List<AckTracker.Pending> pendings, Object key, Runnable task) {
+            this.pendings = pendings;
+            this.key = key;
+            this.task = task;
+        }
+    }
+
+    private class Group {
+
+        private final K key;
+        private final List<AckTracker.Pending> pendings = new ArrayList<>();
+        private final List<Event<K, T>> events = new ArrayList<>();
+
+        Group(K key) {
+            this.key = key;
+        }
+    }
+}
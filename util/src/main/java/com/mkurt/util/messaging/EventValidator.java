@@ -0,0 +1,51 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.event.Event;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Checks the events of the core services, which are keyed by productId, before they are written in a batch. An
+ * invalid event would otherwise fail the write of the whole batch, or be retried by the binder for nothing.
+ */
+public class EventValidator {
+
+    private EventValidator() {
+    }
+
+    /**
+     * Returns the reason the event is invalid, or null if it is valid. entityName is the name of the entities of the
+     * events, e.g. product, and productIdOf gives the productId of such an entity.
+     */
+    public static <T> String validate(Event<Integer, T> event, String entityName, ToIntFunction<T> productIdOf) {
+        if (event.getEventType() == null) {
+            return "Incorrect event type: null";
+        }
+
+        switch (event.getEventType()) {
+
+            case CREATE:
+                return event.getData() == null || productIdOf.applyAsInt(event.getData()) < 1 ? "Invalid " + entityName + " in a CREATE event" : null;
+
+            case CREATE_BATCH:
+                return event.getItems() == null || event.getItems().isEmpty() || event.getItems().stream().anyMatch(item -> productIdOf.applyAsInt(item) < 1) ?
+                        "Invalid " + entityName + "s in a CREATE_BATCH event" : null;
+
+            case DELETE:
+                return event.getKey() == null || event.getKey() < 1 ? "Invalid productId: " + event.getKey() : null;
+
+            case DELETE_LIST:
+                return event.getKeys() == null || event.getKeys().isEmpty() || event.getKeys().stream().anyMatch(key -> key == null || key < 1) ?
+                        "Invalid productIds: " + event.getKeys() : null;
+
+            case DELETE_RANGE:
+                List<Integer> range = event.getKeys();
+                return range == null || range.size() != 2 || range.get(0) == null || range.get(1) == null || range.get(0) < 1 || range.get(1) < range.get(0) ?
+                        "Invalid productId range: " + range : null;
+
+            default:
+                return "Incorrect event type: " + event.getEventType() + ", expected a CREATE, CREATE_BATCH, DELETE, DELETE_LIST or DELETE_RANGE event";
+        }
+    }
+}
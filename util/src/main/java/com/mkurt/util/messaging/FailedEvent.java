@@ -0,0 +1,26 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.event.Event;
+
+/**
+ * An event that could not be applied, together with the reason, e.g. an invalid event or a create of an entity
+ * that already exists. Sent to the dead-letter queue by DeadLetters.
+ */
+public class FailedEvent<K, T> {
+
+    private final Event<K, T> event;
+    private final String reason;
+
+    public FailedEvent(Event<K, T> event, String reason) {
+        this.event = event;
+        this.reason = reason;
+    }
+
+    public Event<K, T> getEvent() {
+        return event;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
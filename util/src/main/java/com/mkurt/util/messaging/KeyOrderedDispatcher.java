@@ -0,0 +1,155 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.event.Event;
+import com.mkurt.api.exception.EventProcessingException;
+import com.mkurt.api.exception.InvalidInputException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes the messages of a binding on a number of lanes, each with its own thread. The lane of a message is
+ * given by the hash of its key, i.e. messages with the same key are processed one after the other, in the order they
+ * were received, while messages with different keys are processed at the same time. A message without a key, e.g.
+ * an event that concerns many products, is processed alone: it waits for all earlier messages, and later messages
+ * wait for it.
+ *
+ * At most maxInFlight messages are processed or waiting for a lane, dispatch() blocks the binder thread until there
+ * is room for one more. A failed message is retried like the binder would, up to maxAttempts times with a backoff
+ * that starts at initialBackoffMs and doubles up to maxBackoffMs, normally the same as the binder's. The messages
+ * are acknowledged by an AckTracker, i.e. only after all earlier messages of their partition are done, so the
+ * binding must use manual acknowledgement.
+ */
+public class KeyOrderedDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KeyOrderedDispatcher.class);
+
+    private final ExecutorService[] lanes;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final Semaphore inFlight;
+    private final AckTracker ackTracker;
+
+    public KeyOrderedDispatcher(String name, int lanes, int maxInFlight, int maxAttempts,
+                                long initialBackoffMs, long maxBackoffMs, AckTracker ackTracker) {
+
+        LOG.info("Creates a key ordered dispatcher for {} with lanes = {}, maxInFlight = {}, maxAttempts = {}, backoff = {}-{} ms",
+                name, lanes, maxInFlight, maxAttempts, initialBackoffMs, maxBackoffMs);
+
+        this.lanes = new ExecutorService[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            String threadName = name + "-lane-" + lane;
+            this.lanes[lane] = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, threadName));
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.ackTracker = ackTracker;
+    }
+
+    /**
+     * The key to dispatch an event by: null for events that concern more than one key, i.e. list and range deletes.
+     */
+    public static Object orderingKey(Event<?, ?> event) {
+        return event.getKeys() == null ? event.getKey() : null;
+    }
+
+    /**
+     * Must be called in the order the messages are received, i.e. from the binder thread. A null key processes the
+     * message alone.
+     */
+    public void dispatch(Message<?> message, Object key, Runnable processor) {
+        dispatch(List.of(register(message)), key, processor);
+    }
+
+    /**
+     * Registers a message for acknowledgement, for messages that are dispatched later, e.g. by an EventCoalescer.
+     * Must be called in the order the messages are received.
+     */
+    public AckTracker.Pending register(Message<?> message) {
+        return ackTracker.register(message);
+    }
+
+    /**
+     * Processes a number of registered messages as one, with the same outcome for all of them. Calls for the same
+     * key must be made in the order the messages were received.
+     */
+    public void dispatch(List<AckTracker.Pending> pendings, Object key, Runnable processor) {
+
+        int permits = key == null ? maxInFlight : 1;
+        try {
+            inFlight.acquire(permits);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessingException("Interrupted while waiting to dispatch a message");
+        }
+
+        ExecutorService lane = lanes[key == null ? 0 : Math.floorMod(Objects.hashCode(key), lanes.length)];
+
+        lane.execute(() -> {
+            Throwable error = null;
+            try {
+                processWithRetries(processor);
+            } catch (RuntimeException ex) {
+                error = ex;
+            } finally {
+                for (AckTracker.Pending pending : pendings) {
+                    ackTracker.complete(pending, error);
+                }
+                inFlight.release(permits);
+            }
+        });
+    }
+
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ExecutorService lane : lanes) {
+                lane.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void processWithRetries(Runnable processor) {
+        long backoff = initialBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                processor.run();
+                return;
+            } catch (InvalidInputException | EventProcessingException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                if (attempt >= maxAttempts) {
+                    throw ex;
+                }
+                LOG.debug("Attempt {} of {} failed, retries in {} ms: {}", attempt, maxAttempts, backoff, ex.toString());
+                sleep(backoff);
+                backoff = Math.min(backoff * 2, maxBackoffMs);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessingException("Interrupted while waiting to retry a message");
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.mkurt.util.messaging;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+
+class AckTrackerTests {
+
+    private final List<String> log = new ArrayList<>();
+    private final AckTracker tracker = new AckTracker((message, error) -> log.add("dlq " + message.getPayload() + ": " + error.getMessage()));
+
+    @Test
+    void messagesAreAcknowledgedInOrderPerPartition() {
+        AckTracker.Pending first = tracker.register(kafkaMessage("first", 0));
+        AckTracker.Pending second = tracker.register(kafkaMessage("second", 0));
+        AckTracker.Pending other = tracker.register(kafkaMessage("other", 1));
+
+        // The second message waits for the first one, the message of the other partition does not
+        tracker.complete(second, null);
+        tracker.complete(other, null);
+        assertEquals(List.of("ack other"), log);
+        assertEquals(2, tracker.getPendingCount());
+
+        tracker.complete(first, null);
+        assertEquals(List.of("ack other", "ack first", "ack second"), log);
+        assertEquals(0, tracker.getPendingCount());
+    }
+
+    @Test
+    void failedKafkaMessageIsSentToDlqBeforeAck() {
+        AckTracker.Pending failed = tracker.register(kafkaMessage("failed", 0));
+        AckTracker.Pending next = tracker.register(kafkaMessage("next", 0));
+
+        tracker.complete(next, null);
+        tracker.complete(failed, new IllegalStateException("Write failed"));
+        assertEquals(List.of("dlq failed: Write failed", "ack failed", "ack next"), log);
+    }
+
+    @Test
+    void failedRabbitMessageIsRejected() throws IOException {
+        Channel channel = mock(Channel.class);
+        AckTracker.Pending failed = tracker.register(rabbitMessage(channel, 1));
+        AckTracker.Pending done = tracker.register(rabbitMessage(channel, 2));
+
+        tracker.complete(done, null);
+        tracker.complete(failed, new IllegalStateException("Write failed"));
+
+        InOrder inOrder = inOrder(channel);
+        inOrder.verify(channel).basicNack(1, false, false);
+        inOrder.verify(channel).basicAck(2, false);
+        assertEquals(List.of(), log);
+    }
+
+    @Test
+    void messagesWithoutAckHeadersAreOnlyTracked() {
+        AckTracker.Pending pending = tracker.register(MessageBuilder.withPayload("plain").build());
+        assertEquals(1, tracker.getPendingCount());
+
+        tracker.complete(pending, new IllegalStateException("Write failed"));
+        assertEquals(0, tracker.getPendingCount());
+        assertEquals(List.of(), log);
+    }
+
+    private Message<String> kafkaMessage(String payload, int partition) {
+        return MessageBuilder.withPayload(payload)
+                .setHeader(KafkaHeaders.RECEIVED_TOPIC, "products")
+                .setHeader(KafkaHeaders.RECEIVED_PARTITION_ID, partition)
+                .setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) () -> log.add("ack " + payload))
+                .build();
+    }
+
+    private Message<String> rabbitMessage(Channel channel, long deliveryTag) {
+        return MessageBuilder.withPayload("message " + deliveryTag)
+                .setHeader(AmqpHeaders.CHANNEL, channel)
+                .setHeader(AmqpHeaders.DELIVERY_TAG, deliveryTag)
+                .build();
+    }
+}
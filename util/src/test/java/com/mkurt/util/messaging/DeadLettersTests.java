@@ -0,0 +1,45 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.event.Event;
+import com.mkurt.api.exception.EventProcessingException;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mkurt.api.event.Event.Type.DELETE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeadLettersTests {
+
+    @Test
+    void failedEventIsSentWithReason() {
+        List<Message<?>> sent = new ArrayList<>();
+        DeadLetters deadLetters = new DeadLetters("productsDlq", (bindingName, message) -> {
+            assertEquals("productsDlq", bindingName);
+            return sent.add((Message<?>) message);
+        });
+
+        Event<Integer, Object> event = new Event<>(DELETE, 1, null);
+        deadLetters.send(new FailedEvent<>(event, "Broken"));
+        deadLetters.send(MessageBuilder.withPayload("payload").setHeader("partition", 3).build(), new IllegalStateException("Failed"));
+
+        assertEquals(2, sent.size());
+        assertEquals(event, sent.get(0).getPayload());
+        assertEquals("Broken", sent.get(0).getHeaders().get(DeadLetters.EXCEPTION_MESSAGE_HEADER));
+        assertEquals("payload", sent.get(1).getPayload());
+        assertEquals(3, sent.get(1).getHeaders().get("partition"));
+        assertEquals("Failed", sent.get(1).getHeaders().get(DeadLetters.EXCEPTION_MESSAGE_HEADER));
+    }
+
+    @Test
+    void failedSendIsAnError() {
+        DeadLetters deadLetters = new DeadLetters("productsDlq", (bindingName, message) -> false);
+
+        assertThrows(EventProcessingException.class,
+                () -> deadLetters.send(new FailedEvent<>(new Event<>(DELETE, 1, null), "Broken")));
+    }
+}
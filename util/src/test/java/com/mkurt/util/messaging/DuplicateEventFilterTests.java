@@ -0,0 +1,75 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.event.Event;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DuplicateEventFilterTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void lastMaxEventsAreFoundAcrossBloomGenerations() {
+        DuplicateEventFilter filter = new DuplicateEventFilter("products", 10, 0.01, registry);
+        List<Event<Integer, Object>> events = createEvents(35);
+
+        // The Bloom filter rotates every 10 events, the last 10 are in the current or the previous generation
+        for (int i = 0; i < events.size(); i++) {
+            filter.markProcessed(events.get(i));
+            for (int processed = Math.max(0, i - 9); processed <= i; processed++) {
+                assertTrue(filter.isDuplicate(events.get(processed)), "Event " + processed + " after " + i);
+            }
+        }
+    }
+
+    @Test
+    void falsePositivesAreCheckedInTheLruSet() {
+        // Only 64 bits for 1000 ids, i.e. the Bloom filter matches almost every id once it has some ids
+        DuplicateEventFilter filter = new DuplicateEventFilter("products", 1000, 0.99, registry);
+        createEvents(200).forEach(filter::markProcessed);
+
+        for (Event<Integer, Object> event : createEvents(100)) {
+            assertFalse(filter.isDuplicate(event));
+        }
+        assertEquals(0.0, registry.get("events.duplicates.skipped").counter().count());
+    }
+
+    @Test
+    void oldestEventIsEvictedFromTheLruSet() {
+        DuplicateEventFilter filter = new DuplicateEventFilter("products", 10, 0.01, registry);
+        List<Event<Integer, Object>> events = createEvents(11);
+        events.forEach(filter::markProcessed);
+
+        // Still in the previous Bloom generation, but no longer in the LRU set
+        assertFalse(filter.isDuplicate(events.get(0)));
+        for (Event<Integer, Object> event : events.subList(1, events.size())) {
+            assertTrue(filter.isDuplicate(event));
+        }
+        assertEquals(10.0, registry.get("events.duplicates.skipped").counter().count());
+    }
+
+    @Test
+    void eventsWithoutIdAreNeverDuplicates() {
+        DuplicateEventFilter filter = new DuplicateEventFilter("products", 10, 0.01, registry);
+        Event<Integer, Object> event = new Event<>();
+        filter.markProcessed(event);
+
+        assertFalse(filter.isDuplicate(event));
+    }
+
+    private List<Event<Integer, Object>> createEvents(int count) {
+        List<Event<Integer, Object>> events = new ArrayList<>();
+        for (int key = 1; key <= count; key++) {
+            events.add(new Event<>(CREATE, key, null));
+        }
+        return events;
+    }
+}
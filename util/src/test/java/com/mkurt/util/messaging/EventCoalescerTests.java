@@ -0,0 +1,72 @@
+package com.mkurt.util.messaging;
+
+import com.mkurt.api.event.Event;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.mkurt.api.event.Event.Type.CREATE;
+import static com.mkurt.api.event.Event.Type.DELETE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventCoalescerTests {
+
+    private final List<String> processed = new CopyOnWriteArrayList<>();
+    private final KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher("test", 1, 4, 1, 1, 1,
+            new AckTracker((message, error) -> processed.add("dlq " + message.getPayload())));
+
+    private EventCoalescer<Integer, String> coalescer;
+
+    @AfterEach
+    void shutdown() {
+        if (coalescer != null) {
+            coalescer.shutdown();
+        }
+    }
+
+    @Test
+    void onlyNetEventsOfKeyAreProcessed() throws InterruptedException {
+        coalescer = new EventCoalescer<>("test", 50, 100, dispatcher, event -> processed.add(event.getEventType() + " " + event.getKey()));
+
+        // Counted down as the messages are acknowledged, i.e. once their net events are processed
+        CountDownLatch acknowledged = new CountDownLatch(4);
+        coalescer.add(message(new Event<>(CREATE, 1, "first"), acknowledged));
+        coalescer.add(message(new Event<>(CREATE, 1, "duplicate"), acknowledged));
+        coalescer.add(message(new Event<>(DELETE, 1, null), acknowledged));
+        coalescer.add(message(new Event<>(CREATE, 1, "recreated"), acknowledged));
+
+        assertTrue(acknowledged.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("DELETE 1", "CREATE 1"), processed);
+    }
+
+    @Test
+    void heldEventsAreProcessedBeforeMultiKeyEvent() throws InterruptedException {
+        coalescer = new EventCoalescer<>("test", 60000, 100, dispatcher, event -> processed.add(event.getEventType() + " " + event.getKey()));
+
+        // The window is far longer than the test, the held events are dispatched by the range delete
+        CountDownLatch acknowledged = new CountDownLatch(3);
+        coalescer.add(message(new Event<>(CREATE, 1, "first"), acknowledged));
+        coalescer.add(message(new Event<>(CREATE, 2, "second"), acknowledged));
+        coalescer.add(message(Event.deleteRange(1, 2), acknowledged));
+
+        assertTrue(acknowledged.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("CREATE 1", "CREATE 2", "DELETE_RANGE 1"), processed);
+    }
+
+    private Message<Event<Integer, String>> message(Event<Integer, String> event, CountDownLatch acknowledged) {
+        return MessageBuilder.withPayload(event)
+                .setHeader(KafkaHeaders.RECEIVED_TOPIC, "test")
+                .setHeader(KafkaHeaders.RECEIVED_PARTITION_ID, 0)
+                .setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) acknowledged::countDown)
+                .build();
+    }
+}